@@ -0,0 +1,89 @@
+package com.example.babblechatapp.firebase;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.babblechatapp.BuildConfig;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Write rate of the presence channel under continuous typing, against the local Firestore emulator.
+ * Run with ./gradlew connectedAndroidTest -PuseFirebaseEmulator=true and firebase emulators:start on the host,
+ * the measured rate is reported in the instrumentation status and the log
+ */
+@RunWith(AndroidJUnit4.class)
+public class PresenceChannelLoadTest {
+
+    private static final long TYPING_DURATION_MS = 30000;
+    // 10 keystrokes per second, a fast typist
+    private static final long KEYSTROKE_INTERVAL_MS = 100;
+    private static final long WRITE_TIMEOUT_SECONDS = 30;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+    @Before
+    public void requireEmulator() {
+        assumeTrue("Needs the Firestore emulator, build with -PuseFirebaseEmulator=true", BuildConfig.USE_FIREBASE_EMULATOR);
+    }
+
+    @Test
+    public void continuousTypingWritesAtMostOncePerThrottleWindow() throws Exception {
+        FirebaseFirestore database = FirebaseFirestore.getInstance();
+        String conversationId = "presence-load-" + System.currentTimeMillis();
+        PresenceChannel presenceChannel = new PresenceChannel(database, conversationId, "typist");
+
+        instrumentation.runOnMainSync(presenceChannel::goOnline);
+        int keystrokes = 0;
+        long start = SystemClock.elapsedRealtime();
+        while (SystemClock.elapsedRealtime() - start < TYPING_DURATION_MS) {
+            instrumentation.runOnMainSync(presenceChannel::onTyping);
+            keystrokes++;
+            SystemClock.sleep(KEYSTROKE_INTERVAL_MS);
+        }
+        long typingMillis = SystemClock.elapsedRealtime() - start;
+        int[] typingWrites = new int[1];
+        instrumentation.runOnMainSync(() -> {
+            typingWrites[0] = presenceChannel.writeCount - 1;
+            presenceChannel.goOffline();
+        });
+        Tasks.await(presenceChannel.lastWrite, WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        double writesPerSecond = typingWrites[0] * 1000.0 / typingMillis;
+        Bundle status = new Bundle();
+        status.putString("presence", String.format(Locale.US, "%d keystrokes, %d writes in %d ms (%.2f writes/s)",
+                keystrokes, typingWrites[0], typingMillis, writesPerSecond));
+        instrumentation.sendStatus(0, status);
+
+        long maxTypingWrites = typingMillis / PresenceChannel.TYPING_THROTTLE_MS + 1;
+        assertTrue("Typing wrote " + typingWrites[0] + " times, expected at most " + maxTypingWrites,
+                typingWrites[0] <= maxTypingWrites);
+        // the typing state is written at all, how often it is refreshed depends on the speed of the device
+        assertTrue("Typing was never written", typingWrites[0] >= 1);
+
+        DocumentSnapshot documentSnapshot = Tasks.await(
+                database.collection(Constants.KEY_COLLECTION_PRESENCE).document(conversationId).get(Source.SERVER),
+                WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS
+        );
+        assertEquals(false, documentSnapshot.get("typist." + Constants.KEY_TYPING));
+        assertEquals(false, documentSnapshot.get("typist." + Constants.KEY_ONLINE));
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.babblechatapp.repositories;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.babblechatapp.BuildConfig;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.Group;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Delivery of group messages to the members, for a group of 2 and a group of 200, against the local Firestore
+ * emulator. Every listening member is a Firestore client of its own (a FirebaseApp instance with its own
+ * connection and no shared cache), as separate devices would be. Each of them must receive every message exactly
+ * once and in the order it was sent, and the group must hold one document per message whatever its size.
+ * Billed reads aren't measured here, the emulator doesn't report them. Run with
+ * ./gradlew connectedAndroidTest -PuseFirebaseEmulator=true and firebase emulators:start on the host,
+ * the delivery times are reported in the instrumentation status and the log
+ */
+@RunWith(AndroidJUnit4.class)
+public class GroupFanOutLoadTest {
+
+    // same as BabbleApplication
+    private static final int FIRESTORE_EMULATOR_PORT = 8080;
+    private static final int SMALL_GROUP_SIZE = 2;
+    private static final int LARGE_GROUP_SIZE = 200;
+    // members of each group followed by a client of their own, as many as one test device runs comfortably
+    private static final int LISTENING_MEMBERS = 50;
+    private static final int MESSAGE_COUNT = 50;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final List<FirebaseApp> memberApps = new ArrayList<>();
+    private final List<ListenerRegistration> registrations = new ArrayList<>();
+    private final ExecutorService listenerExecutor = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void requireEmulator() {
+        assumeTrue("Needs the Firestore emulator, build with -PuseFirebaseEmulator=true", BuildConfig.USE_FIREBASE_EMULATOR);
+    }
+
+    @After
+    public void closeMemberClients() {
+        for (ListenerRegistration registration : registrations) {
+            registration.remove();
+        }
+        for (FirebaseApp memberApp : memberApps) {
+            memberApp.delete();
+        }
+        listenerExecutor.shutdown();
+    }
+
+    @Test
+    public void everyMemberReceivesEachMessageOnceInOrder() throws Exception {
+        FanOut small = measure(SMALL_GROUP_SIZE);
+        FanOut large = measure(LARGE_GROUP_SIZE);
+
+        Bundle status = new Bundle();
+        status.putString("groupFanOut", small + "\n" + large);
+        instrumentation.sendStatus(0, status);
+
+        // nothing is copied per member
+        assertEquals(MESSAGE_COUNT, small.storedMessages);
+        assertEquals(MESSAGE_COUNT, large.storedMessages);
+    }
+
+    /**
+     * Create a group of the given size, follow it from some of its members and send messages to it
+     */
+    private FanOut measure(int memberCount) throws Exception {
+        GroupRepository senderRepository = new GroupRepository(FirebaseFirestore.getInstance());
+        User sender = new User();
+        sender.id = "group-load-sender";
+        sender.name = "Sender";
+        List<String> memberIds = new ArrayList<>();
+        for (int i = 1; i < memberCount; i++) {
+            memberIds.add(String.format(Locale.US, "group-load-member-%03d", i));
+        }
+        Group group = Tasks.await(senderRepository.create(sender, "Load " + memberCount, memberIds), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(memberCount, group.members.size());
+
+        int listenerCount = Math.min(LISTENING_MEMBERS, memberIds.size());
+        CountDownLatch attached = new CountDownLatch(listenerCount);
+        CountDownLatch received = new CountDownLatch(listenerCount * MESSAGE_COUNT);
+        // messages received by each member, in the order they arrived, only touched from listenerExecutor
+        List<List<String>> receivedMessages = new ArrayList<>();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < listenerCount; i++) {
+            GroupRepository memberRepository = new GroupRepository(getMemberClient(memberCount + "-" + memberIds.get(i)));
+            List<String> memberMessages = new ArrayList<>();
+            receivedMessages.add(memberMessages);
+            boolean[] isAttached = new boolean[1];
+            registrations.add(memberRepository.getNewMessagesQuery(group.id, null)
+                    .addSnapshotListener(listenerExecutor, (value, error) -> {
+                        if (error != null || value == null) return;
+                        // the first snapshot from the server is the empty group
+                        if (!isAttached[0] && !value.getMetadata().isFromCache()) {
+                            isAttached[0] = true;
+                            attached.countDown();
+                        }
+                        long now = System.currentTimeMillis();
+                        for (DocumentChange documentChange : value.getDocumentChanges()) {
+                            if (documentChange.getType() != DocumentChange.Type.ADDED) continue;
+                            memberMessages.add(documentChange.getDocument().getString(Constants.KEY_MESSAGE));
+                            // the server's clock, the emulator runs on the host
+                            Date timestamp = documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP);
+                            if (timestamp != null) latencies.add(now - timestamp.getTime());
+                            received.countDown();
+                        }
+                    }));
+        }
+        assertTrue("Members didn't attach", attached.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        List<String> sentMessages = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.id = senderRepository.newMessageId(group.id);
+            chatMessage.conversationId = group.id;
+            chatMessage.senderId = sender.id;
+            chatMessage.senderName = sender.name;
+            chatMessage.message = "Message " + (i + 1);
+            sentMessages.add(chatMessage.message);
+            Tasks.await(senderRepository.send(chatMessage), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertTrue("Members received " + (listenerCount * MESSAGE_COUNT - received.getCount()) + " of "
+                + listenerCount * MESSAGE_COUNT + " messages", received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // every member got each message once, in the order of the server's timestamps, which is the order they were sent
+        List<List<String>> deliveries = Tasks.await(Tasks.call(listenerExecutor, () -> receivedMessages));
+        for (List<String> memberMessages : deliveries) {
+            assertEquals(sentMessages, memberMessages);
+        }
+
+        FanOut fanOut = new FanOut();
+        fanOut.memberCount = memberCount;
+        fanOut.listenerCount = listenerCount;
+        fanOut.storedMessages = Tasks.await(senderRepository.getMessagesBeforeQuery(group.id, null, MESSAGE_COUNT + 1).get(Source.SERVER),
+                TIMEOUT_SECONDS, TimeUnit.SECONDS).size();
+        synchronized (latencies) {
+            Collections.sort(latencies);
+            fanOut.medianLatencyMillis = latencies.isEmpty() ? 0 : latencies.get(latencies.size() / 2);
+        }
+        return fanOut;
+    }
+
+    /**
+     * @return a Firestore client of its own, as on the device of the member
+     */
+    private FirebaseFirestore getMemberClient(String name) {
+        Context context = instrumentation.getTargetContext();
+        FirebaseApp memberApp = FirebaseApp.initializeApp(context, FirebaseApp.getInstance().getOptions(), "group-load-" + name);
+        memberApps.add(memberApp);
+        FirebaseFirestore database = FirebaseFirestore.getInstance(memberApp);
+        // nothing is served from a cache left by an earlier run
+        database.setFirestoreSettings(new FirebaseFirestoreSettings.Builder().setPersistenceEnabled(false).build());
+        database.useEmulator(BuildConfig.FIREBASE_EMULATOR_HOST, FIRESTORE_EMULATOR_PORT);
+        return database;
+    }
+
+    private static class FanOut {
+        int memberCount, listenerCount, storedMessages;
+        long medianLatencyMillis;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d members: %d messages stored for %d sent, received by %d members, median delivery %d ms",
+                    memberCount, storedMessages, MESSAGE_COUNT, listenerCount, medianLatencyMillis);
+        }
+    }
+}
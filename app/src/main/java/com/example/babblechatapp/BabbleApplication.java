@@ -0,0 +1,40 @@
+package com.example.babblechatapp;
+
+import android.app.Application;
+
+import com.example.babblechatapp.utilities.AppExecutors;
+import com.example.babblechatapp.utilities.PreferenceManager;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.storage.FirebaseStorage;
+
+public class BabbleApplication extends Application {
+
+    private static final int AUTH_EMULATOR_PORT = 9099;
+    private static final int FIRESTORE_EMULATOR_PORT = 8080;
+    private static final int STORAGE_EMULATOR_PORT = 9199;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        preloadPreferences();
+        if (BuildConfig.USE_FIREBASE_EMULATOR) useFirebaseEmulators();
+    }
+
+    /**
+     * Load the settings snapshot on the background pool while the first activity is being created,
+     * so the routing decision of LauncherActivity finds it in memory instead of blocking the main thread on the disk
+     */
+    private void preloadPreferences() {
+        AppExecutors.background().execute(() -> new PreferenceManager(getApplicationContext()));
+    }
+
+    /**
+     * Point Firebase at the local emulator suite (firebase emulators:start), must run before any other Firebase call
+     */
+    private void useFirebaseEmulators() {
+        FirebaseAuth.getInstance().useEmulator(BuildConfig.FIREBASE_EMULATOR_HOST, AUTH_EMULATOR_PORT);
+        FirebaseFirestore.getInstance().useEmulator(BuildConfig.FIREBASE_EMULATOR_HOST, FIRESTORE_EMULATOR_PORT);
+        FirebaseStorage.getInstance().useEmulator(BuildConfig.FIREBASE_EMULATOR_HOST, STORAGE_EMULATOR_PORT);
+    }
+}
@@ -1,41 +1,94 @@
 package com.example.babblechatapp.activities;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.work.WorkInfo;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.Toast;
 
+import com.example.babblechatapp.R;
 import com.example.babblechatapp.adapters.ChatAdapter;
 import com.example.babblechatapp.databinding.ActivityChatBinding;
+import com.example.babblechatapp.firebase.ConversationMigrationWorker;
+import com.example.babblechatapp.firebase.InboxStream;
+import com.example.babblechatapp.firebase.ListenerRegistry;
+import com.example.babblechatapp.firebase.MessageOutbox;
+import com.example.babblechatapp.firebase.PresenceChannel;
+import com.example.babblechatapp.listeners.InboxListener;
+import com.example.babblechatapp.listeners.OutboxListener;
+import com.example.babblechatapp.listeners.PresenceListener;
 import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.Conversation;
 import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.repositories.ConversationRepository;
+import com.example.babblechatapp.repositories.MessageRepository;
+import com.example.babblechatapp.utilities.AppExecutors;
 import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.ConversationUtils;
+import com.example.babblechatapp.utilities.DateFormatUtils;
 import com.example.babblechatapp.utilities.PreferenceManager;
-import com.google.firebase.firestore.DocumentChange;
-import com.google.firebase.firestore.EventListener;
+import com.example.babblechatapp.utilities.SerialExecutor;
+import com.example.babblechatapp.utilities.SortedMessageList;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QuerySnapshot;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.Executor;
 
-import android.util.Base64;
 import android.view.View;
 
 public class ChatActivity extends AppCompatActivity {
 
+    // number of messages fetched for every page of history
+    private static final int MESSAGE_PAGE_SIZE = 30;
+    // start fetching the previous page when the user scrolls this close to the oldest loaded message
+    private static final int PREFETCH_DISTANCE = 5;
+    // messages received in a row are acknowledged together
+    private static final long READ_ACKNOWLEDGE_DELAY_MS = 1000;
+
     private ActivityChatBinding binding;
     private User receiverUser;
-    private List<ChatMessage> chatMessages;
+    // only touched from messageExecutor, the adapter receives copies of the list and never writes to the messages
+    private SortedMessageList chatMessages;
     private ChatAdapter chatAdapter;
     private PreferenceManager preferenceManager;
     private FirebaseFirestore database;
+    private String conversationId;
+    private MessageRepository messageRepository;
+    private ConversationRepository conversationRepository;
+    private MessageOutbox messageOutbox;
+    private PresenceChannel presenceChannel;
+    // decodes snapshots and updates chatMessages in arrival order, off the main thread
+    private final Executor messageExecutor = new SerialExecutor(AppExecutors.background());
+    // attaches the listeners of this screen while it is started only
+    private final ListenerRegistry listenerRegistry = ListenerRegistry.getInstance();
+    // newest message received by the new messages listener, which resumes after it on every start
+    private volatile Date lastSeenTimestamp;
+    // only touched from messageExecutor
+    private Date oldestLoadedTimestamp;
+    // only touched from messageExecutor, set while the list stops short of the newest message
+    // (opened on a search result), newer messages are then read from the device as the user scrolls down
+    private Date newestLoadedTimestamp;
+    private boolean isLoadingMessages;
+    private boolean hasOlderMessages = true;
+    private boolean hasNewerMessages;
+    // the message the conversation is opened on (i.e. a search result), null to open on the newest messages
+    private String targetMessageId;
+    private Date targetTimestamp;
+    // the user's summary of the conversation as last read, null until it exists
+    private Conversation conversationSummary;
+    private boolean isStarted;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable acknowledgeRead = this::markConversationAsRead;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,98 +98,474 @@ public class ChatActivity extends AppCompatActivity {
         setListeners();
         loadReceiverDetails();
         init();
-        listenMessages();
+        loadConversation();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isStarted = true;
+        presenceChannel.goOnline();
+        markConversationAsRead();
+    }
+
+    @Override
+    protected void onStop() {
+        // everything received while the conversation was open has been seen
+        handler.removeCallbacks(acknowledgeRead);
+        markConversationAsRead();
+        isStarted = false;
+        presenceChannel.goOffline();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        handler.removeCallbacks(acknowledgeRead);
+        messageOutbox.close();
+        super.onDestroy();
     }
 
     private void setListeners() {
         binding.imageBack.setOnClickListener(v -> onBackPressed());
         binding.layoutSend.setOnClickListener(v -> sendMessage());
+        binding.chatRecyclerView.addOnScrollListener(loadOlderMessagesOnScroll());
+        binding.inputMessage.addTextChangedListener(notifyTyping());
+    }
+
+    /**
+     * Every keystroke is reported, the presence channel decides which ones are written
+     */
+    @NonNull
+    private TextWatcher notifyTyping() {
+        return new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                // sending clears the input, which stops typing too
+                if (editable.length() == 0) {
+                    presenceChannel.stopTyping();
+                } else {
+                    presenceChannel.onTyping();
+                }
+            }
+        };
+    }
+
+    /**
+     * Fetch the previous page of history once the user scrolls up near the oldest loaded message,
+     * and the next page once they scroll down near the newest loaded one when it isn't the newest message
+     * @return scroll listener for the chat recycler view
+     */
+    @NonNull
+    private RecyclerView.OnScrollListener loadOlderMessagesOnScroll() {
+        return new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy == 0 || isLoadingMessages) return;
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager == null) return;
+                if (dy < 0 && hasOlderMessages && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    loadOlderMessages();
+                } else if (dy > 0 && hasNewerMessages
+                        && layoutManager.findLastVisibleItemPosition() >= chatAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                    loadNewerMessages();
+                }
+            }
+        };
     }
 
     private void init() {
         preferenceManager = new PreferenceManager(getApplicationContext());
-        chatMessages = new ArrayList<>();
+        chatMessages = new SortedMessageList();
         chatAdapter = new ChatAdapter(
-                chatMessages,
-                getBitmapFromEncodeString(receiverUser.image),
+                receiverUser,
                 preferenceManager.getString(Constants.KEY_USER_ID)
         );
+        // per activity, as the received rows hold the avatar of this receiver
+        binding.chatRecyclerView.setRecycledViewPool(ChatAdapter.createRecycledViewPool());
         binding.chatRecyclerView.setAdapter(chatAdapter);
         database = FirebaseFirestore.getInstance();
+        messageRepository = new MessageRepository(getApplicationContext());
+        conversationRepository = new ConversationRepository();
+        conversationId = ConversationUtils.getConversationId(
+                preferenceManager.getString(Constants.KEY_USER_ID),
+                receiverUser.id
+        );
+        messageOutbox = new MessageOutbox(database, conversationRepository, getSender(), receiverUser, conversationId, outboxListener);
+        presenceChannel = new PresenceChannel(database, conversationId, preferenceManager.getString(Constants.KEY_USER_ID));
+        listenerRegistry.register(this, "presence", () -> presenceChannel.listen(receiverUser.id, presenceListener));
+    }
+
+    /**
+     * Show under the name of the receiver whether they are typing, online or when they were last seen
+     */
+    private final PresenceListener presenceListener = (isOnline, isTyping, lastSeen) -> {
+        if (isTyping) {
+            binding.textStatus.setText(R.string.status_typing);
+        } else if (isOnline) {
+            binding.textStatus.setText(R.string.status_online);
+        } else if (lastSeen != null) {
+            binding.textStatus.setText(getString(R.string.status_last_seen, DateFormatUtils.getReadableDateTime(lastSeen)));
+        } else {
+            binding.textStatus.setVisibility(View.GONE);
+            return;
+        }
+        binding.textStatus.setVisibility(View.VISIBLE);
+    };
+
+    /**
+     * Show the messages stored on the device right away, then sync only what the device is missing:
+     * messages newer than the newest stored one (and the newest page if nothing is stored yet)
+     */
+    private void loadConversation() {
+        isLoadingMessages = true;
+        listenConversationSummary();
+        // MessagingService shows one notification per conversation
+        NotificationManagerCompat.from(this).cancel(conversationId.hashCode());
+        messageExecutor.execute(() -> {
+            if (targetMessageId != null) {
+                loadMessageWindow();
+                return;
+            }
+            List<ChatMessage> storedMessages = messageRepository.getLatestMessages(conversationId, MESSAGE_PAGE_SIZE);
+            if (storedMessages.isEmpty()) return;
+            addPageToMessageList(storedMessages);
+            submitMessages(true, null);
+        });
+        messageExecutor.execute(() -> {
+            if (newestLoadedTimestamp != null) {
+                // the window around the target message is shown, the newest page is read once the user scrolls to it
+                Date newestStoredTimestamp = messageRepository.getNewestTimestamp(conversationId);
+                AppExecutors.mainThread().execute(() -> {
+                    isLoadingMessages = false;
+                    listenNewMessages(newestStoredTimestamp);
+                    migrateLegacyMessages();
+                });
+                return;
+            }
+            boolean hasFullPage = chatMessages.size() >= MESSAGE_PAGE_SIZE;
+            // pushed messages may be all the device holds, the rest of the page is read from the network
+            if (!hasFullPage) {
+                try {
+                    List<ChatMessage> page = messageRepository.getMessagesBefore(conversationId, null, MESSAGE_PAGE_SIZE);
+                    addPageToMessageList(page);
+                    hasFullPage = page.size() >= MESSAGE_PAGE_SIZE;
+                } catch (Exception e) {
+                    hasFullPage = false;
+                }
+            }
+            Date newestStoredTimestamp = messageRepository.getNewestTimestamp(conversationId);
+            boolean hasOlderPage = hasFullPage;
+            // the target message stays where loadMessageWindow scrolled to
+            submitMessages(targetMessageId == null, () -> {
+                isLoadingMessages = false;
+                hasOlderMessages = hasOlderPage;
+                listenNewMessages(newestStoredTimestamp);
+                migrateLegacyMessages();
+            });
+        });
     }
 
+    /**
+     * Messages written before conversation ids existed can't be queried by id until they are tagged, which runs in
+     * the background once the first page is shown. What it tagged is stored on the device, the newest page is then
+     * read again and older pages are looked for again
+     */
+    private void migrateLegacyMessages() {
+        if (ConversationMigrationWorker.isMigrated(preferenceManager, conversationId)) return;
+        ConversationMigrationWorker.enqueue(getApplicationContext(), preferenceManager.getString(Constants.KEY_USER_ID), receiverUser.id)
+                .observe(this, workInfos -> {
+                    for (WorkInfo workInfo : workInfos) {
+                        if (workInfo.getState() == WorkInfo.State.SUCCEEDED
+                                && workInfo.getOutputData().getInt(ConversationMigrationWorker.KEY_TAGGED_COUNT, 0) > 0) {
+                            reloadTaggedMessages();
+                        }
+                    }
+                });
+    }
+
+    private void reloadTaggedMessages() {
+        messageExecutor.execute(() -> {
+            // the window around the target message is shown, the newest page is read once the user scrolls to it
+            if (newestLoadedTimestamp == null) {
+                for (ChatMessage chatMessage : messageRepository.getLatestMessages(conversationId, MESSAGE_PAGE_SIZE)) {
+                    chatMessages.put(chatMessage);
+                }
+            }
+            submitMessages(false, () -> hasOlderMessages = true);
+        });
+    }
+
+    /**
+     * Show the message right away as pending and hand it to the outbox, which writes it with the messages sent around it
+     */
     private void sendMessage() {
-        putMessagesIntoDatabase();
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = messageOutbox.newMessageId();
+        chatMessage.conversationId = conversationId;
+        chatMessage.senderId = preferenceManager.getString(Constants.KEY_USER_ID);
+        chatMessage.receiverId = receiverUser.id;
+        chatMessage.message = binding.inputMessage.getText().toString();
+        chatMessage.dateObject = new Date();
+        chatMessage.pending = true;
+        messageExecutor.execute(() -> {
+            // a sent message is the newest one, the list can't stop short of it
+            if (newestLoadedTimestamp != null) loadLatestMessages();
+            chatMessages.put(chatMessage);
+            submitMessages(true, null);
+        });
+        messageOutbox.send(chatMessage);
         binding.inputMessage.setText(null);
     }
 
-    private void listenMessages() {
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID, preferenceManager.getString(Constants.KEY_USER_ID))
-                .whereEqualTo(Constants.KEY_RECEIVER_ID, receiverUser.id)
-                .addSnapshotListener(eventListener);
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID, receiverUser.id)
-                .whereEqualTo(Constants.KEY_RECEIVER_ID, preferenceManager.getString(Constants.KEY_USER_ID))
-                .addSnapshotListener(eventListener);
-    }
-
-    private void putMessagesIntoDatabase() {
-        HashMap<String, Object> message = new HashMap<>();
-        message.put(Constants.KEY_SENDER_ID, preferenceManager.getString(Constants.KEY_USER_ID));
-        message.put(Constants.KEY_RECEIVER_ID, receiverUser.id);
-        message.put(Constants.KEY_MESSAGE, binding.inputMessage.getText().toString());
-        message.put(Constants.KEY_TIMESTAMP, new Date());
-        database.collection(Constants.KEY_COLLECTION_CHAT).add(message);
-    }
-
-    private final EventListener<QuerySnapshot> eventListener = (value, error) -> {
-        if (error != null) return;
-        if (value != null) {
-            int count = chatMessages.size();
-            for (DocumentChange documentChange : value.getDocumentChanges()) {
-                if (documentChange.getType() == DocumentChange.Type.ADDED) {
-                    addMessageToMessageList(documentChange);
+    /**
+     * Runs on the main thread when the outbox is done with a batch. The echo of the batch from the snapshot listener
+     * has the same ids, so it replaces the pending messages instead of adding copies
+     */
+    private final OutboxListener outboxListener = new OutboxListener() {
+        @Override
+        public void onMessagesSent(List<ChatMessage> sentMessages) {
+            messageExecutor.execute(() -> {
+                for (ChatMessage sentMessage : sentMessages) {
+                    // the adapter holds the pending instance, so the sent state is a new one
+                    ChatMessage chatMessage = copyOf(sentMessage);
+                    chatMessage.pending = false;
+                    chatMessages.put(chatMessage);
                 }
-            }
-            Collections.sort(chatMessages,(obj1, obj2) -> obj1.dateObject.compareTo(obj2.dateObject));
-            adjustChatRecyclerViewAfterNewMessage(count);
+                submitMessages(false, null);
+            });
+        }
+
+        @Override
+        public void onMessagesFailed(List<ChatMessage> failedMessages) {
+            Toast.makeText(getApplicationContext(), "Unable to send message", Toast.LENGTH_SHORT).show();
+            messageExecutor.execute(() -> {
+                for (ChatMessage failedMessage : failedMessages) {
+                    chatMessages.remove(failedMessage.id);
+                }
+                submitMessages(false, null);
+            });
         }
-        binding.progressBar.setVisibility(View.GONE);
     };
 
-    private void adjustChatRecyclerViewAfterNewMessage(int count) {
-        // if this is the first message (view doesn't have to be scrolled)
-        if (count == 0) {
-            chatAdapter.notifyDataSetChanged();
-        } else { // adjust accordingly
-            chatAdapter.notifyItemRangeInserted(chatMessages.size(), chatMessages.size());
-            binding.chatRecyclerView.smoothScrollToPosition(chatMessages.size()-1);
+    @NonNull
+    private static ChatMessage copyOf(ChatMessage chatMessage) {
+        ChatMessage copy = new ChatMessage();
+        copy.id = chatMessage.id;
+        copy.conversationId = chatMessage.conversationId;
+        copy.senderId = chatMessage.senderId;
+        copy.senderName = chatMessage.senderName;
+        copy.receiverId = chatMessage.receiverId;
+        copy.message = chatMessage.message;
+        copy.dateObject = chatMessage.dateObject;
+        copy.pending = chatMessage.pending;
+        return copy;
+    }
+
+    /**
+     * Load the page of history before the oldest displayed message, from the device when it holds it.
+     * The page is read on messageExecutor and only the resulting list reaches the main thread
+     */
+    private void loadOlderMessages() {
+        isLoadingMessages = true;
+        messageExecutor.execute(() -> {
+            List<ChatMessage> page;
+            try {
+                page = messageRepository.getMessagesBefore(conversationId, oldestLoadedTimestamp, MESSAGE_PAGE_SIZE);
+            } catch (Exception e) {
+                AppExecutors.mainThread().execute(() -> isLoadingMessages = false);
+                return;
+            }
+            addPageToMessageList(page);
+            boolean hasFullPage = page.size() >= MESSAGE_PAGE_SIZE;
+            submitMessages(false, () -> {
+                isLoadingMessages = false;
+                hasOlderMessages = hasFullPage;
+            });
+        });
+    }
+
+    /**
+     * Runs on messageExecutor: show only the stored messages around the target message and scroll to it
+     */
+    private void loadMessageWindow() {
+        List<ChatMessage> window = messageRepository.getMessageWindow(conversationId, targetTimestamp, MESSAGE_PAGE_SIZE);
+        addPageToMessageList(window);
+        Date newestStoredTimestamp = messageRepository.getNewestTimestamp(conversationId);
+        Date newestInWindow = window.isEmpty() ? null : window.get(window.size() - 1).dateObject;
+        newestLoadedTimestamp = newestInWindow != null && newestStoredTimestamp != null && newestInWindow.before(newestStoredTimestamp)
+                ? newestInWindow
+                : null;
+        boolean hasNewerPage = newestLoadedTimestamp != null;
+        int targetPosition = 0;
+        for (int position = 0; position < chatMessages.size(); position++) {
+            if (targetMessageId.equals(chatMessages.get(position).id)) targetPosition = position;
         }
-        binding.chatRecyclerView.setVisibility(View.VISIBLE);
+        int scrollPosition = targetPosition;
+        submitMessages(false, () -> {
+            hasNewerMessages = hasNewerPage;
+            LinearLayoutManager layoutManager = (LinearLayoutManager) binding.chatRecyclerView.getLayoutManager();
+            if (layoutManager != null) {
+                layoutManager.scrollToPositionWithOffset(scrollPosition, binding.chatRecyclerView.getHeight() / 3);
+            }
+        });
     }
 
-    private void addMessageToMessageList(DocumentChange documentChange) {
-        ChatMessage chatMessage = new ChatMessage();
-        chatMessage.senderId = documentChange.getDocument().getString(Constants.KEY_SENDER_ID);
-        chatMessage.receiverId = documentChange.getDocument().getString(Constants.KEY_RECEIVER_ID);
-        chatMessage.message = documentChange.getDocument().getString(Constants.KEY_MESSAGE);
-        chatMessage.dateTime = getReadableDateTime(documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP));
-        chatMessage.dateObject = documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP);
-        chatMessages.add(chatMessage);
+    /**
+     * Load the stored page after the newest displayed message, until the list reaches the newest message
+     */
+    private void loadNewerMessages() {
+        isLoadingMessages = true;
+        messageExecutor.execute(() -> {
+            if (newestLoadedTimestamp == null) {
+                AppExecutors.mainThread().execute(() -> {
+                    isLoadingMessages = false;
+                    hasNewerMessages = false;
+                });
+                return;
+            }
+            List<ChatMessage> page = messageRepository.getMessagesAfter(conversationId, newestLoadedTimestamp, MESSAGE_PAGE_SIZE);
+            for (ChatMessage chatMessage : page) {
+                chatMessages.put(chatMessage);
+            }
+            // the stored range ends at the newest message, and messages arriving from now on are put into the list
+            newestLoadedTimestamp = page.size() < MESSAGE_PAGE_SIZE ? null : page.get(page.size() - 1).dateObject;
+            boolean hasNewerPage = newestLoadedTimestamp != null;
+            submitMessages(false, () -> {
+                isLoadingMessages = false;
+                hasNewerMessages = hasNewerPage;
+            });
+        });
+    }
+
+    /**
+     * Runs on messageExecutor: replace the window around the target message with the newest stored page
+     */
+    private void loadLatestMessages() {
+        chatMessages.clear();
+        newestLoadedTimestamp = null;
+        addPageToMessageList(messageRepository.getLatestMessages(conversationId, MESSAGE_PAGE_SIZE));
+        AppExecutors.mainThread().execute(() -> {
+            hasNewerMessages = false;
+            hasOlderMessages = true;
+        });
+    }
+
+    private void addPageToMessageList(List<ChatMessage> page) {
+        for (ChatMessage chatMessage : page) {
+            chatMessages.put(chatMessage);
+        }
+        if (!page.isEmpty()) oldestLoadedTimestamp = page.get(0).dateObject;
+    }
+
+    /**
+     * Hand a copy of the message list to the adapter, which diffs it against the displayed one on a background thread
+     * @param scrollToLastMessage whether to jump to the newest message once the list is displayed
+     * @param onDisplayed called on the main thread once the list is displayed
+     */
+    private void submitMessages(boolean scrollToLastMessage, Runnable onDisplayed) {
+        List<ChatMessage> snapshot = new ArrayList<>(chatMessages.getMessages());
+        AppExecutors.mainThread().execute(() -> {
+            if (isDestroyed()) return;
+            chatAdapter.submitList(snapshot, () -> {
+                if (scrollToLastMessage && !snapshot.isEmpty()) {
+                    binding.chatRecyclerView.smoothScrollToPosition(snapshot.size() - 1);
+                }
+                binding.chatRecyclerView.setVisibility(View.VISIBLE);
+                binding.progressBar.setVisibility(View.GONE);
+                if (onDisplayed != null) onDisplayed.run();
+            });
+        });
+    }
+
+    /**
+     * Follow the conversation on the inbox stream, which shares one listener between every conversation
+     * and stores what it receives, older history is read page by page.
+     * The subscription is dropped while the screen is stopped and resumes after the newest message it received,
+     * what arrived in the meantime is replayed from the device
+     * @param newestStoredTimestamp time of the newest message stored on the device, null if none is stored
+     */
+    private void listenNewMessages(Date newestStoredTimestamp) {
+        lastSeenTimestamp = newestStoredTimestamp;
+        listenerRegistry.register(this, "inbox", () -> InboxStream.getInstance(getApplicationContext())
+                .subscribe(conversationId, lastSeenTimestamp, messageExecutor, inboxListener));
+    }
+
+    @NonNull
+    private User getSender() {
+        User sender = new User();
+        sender.id = preferenceManager.getString(Constants.KEY_USER_ID);
+        sender.name = preferenceManager.getString(Constants.KEY_NAME);
+        sender.imageHash = preferenceManager.getString(Constants.KEY_IMAGE_HASH);
+        return sender;
     }
 
-    private Bitmap getBitmapFromEncodeString(String encodedImage) {
-        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    /**
+     * Follow the user's summary of the conversation: its counts tell what is left to acknowledge,
+     * the receiver's watermarks give the status of the sent messages
+     */
+    private void listenConversationSummary() {
+        listenerRegistry.register(this, "conversationSummary", () -> conversationRepository
+                .getConversationReference(preferenceManager.getString(Constants.KEY_USER_ID), receiverUser.id)
+                .addSnapshotListener((documentSnapshot, error) -> {
+                    // no summary until a message is exchanged
+                    if (error != null || documentSnapshot == null || !documentSnapshot.exists()) return;
+                    conversationSummary = ConversationRepository.getConversation(documentSnapshot);
+                    chatAdapter.setReceipts(conversationSummary.peerDeliveredAt, conversationSummary.peerReadAt);
+                    if (isStarted && conversationSummary.unreadCount > 0) {
+                        handler.removeCallbacks(acknowledgeRead);
+                        handler.postDelayed(acknowledgeRead, READ_ACKNOWLEDGE_DELAY_MS);
+                    }
+                }));
     }
 
+    /**
+     * Acknowledge everything received so far with one write of the read watermark, only when something is unread
+     */
+    private void markConversationAsRead() {
+        if (conversationSummary == null || conversationSummary.unreadCount == 0) return;
+        conversationRepository.markAsRead(preferenceManager.getString(Constants.KEY_USER_ID), conversationSummary);
+        // until the local echo of the write comes back
+        conversationSummary.unreadCount = 0;
+    }
+
+    /**
+     * Runs on messageExecutor: a burst of changes, already stored by the stream, is applied off the main thread,
+     * then displayed in one submit
+     */
+    private final InboxListener inboxListener = (changedMessages, removedMessageIds) -> {
+        boolean hasNewLastMessage = false;
+        for (String id : removedMessageIds) {
+            chatMessages.remove(id);
+        }
+        // ADDED or MODIFIED, the list replaces messages it already holds
+        for (ChatMessage chatMessage : changedMessages) {
+            // a pending echo (a message still in the outbox) isn't final yet, the replay must not start after it
+            if (!chatMessage.pending && chatMessage.dateObject != null
+                    && (lastSeenTimestamp == null || chatMessage.dateObject.after(lastSeenTimestamp))) {
+                lastSeenTimestamp = chatMessage.dateObject;
+            }
+            // past the end of the displayed window, read from the device once the user scrolls down to it
+            if (newestLoadedTimestamp != null
+                    && (chatMessage.dateObject == null || chatMessage.dateObject.after(newestLoadedTimestamp))) continue;
+            int position = chatMessages.put(chatMessage);
+            if (position == chatMessages.size() - 1) hasNewLastMessage = true;
+        }
+        submitMessages(hasNewLastMessage, null);
+    };
+
     private void loadReceiverDetails() {
         receiverUser = (User) getIntent().getSerializableExtra(Constants.KEY_USER);
         binding.textName.setText(receiverUser.name);
+        targetMessageId = getIntent().getStringExtra(Constants.KEY_MESSAGE_ID);
+        if (targetMessageId != null) targetTimestamp = new Date(getIntent().getLongExtra(Constants.KEY_MESSAGE_TIMESTAMP, 0));
     }
-
-    private String getReadableDateTime(Date date) {
-        return new SimpleDateFormat("MMMM dd, yyy - hh:mm a", Locale.getDefault()).format(date);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,260 @@
+package com.example.babblechatapp.activities;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Toast;
+
+import com.example.babblechatapp.R;
+import com.example.babblechatapp.adapters.ChatAdapter;
+import com.example.babblechatapp.databinding.ActivityChatBinding;
+import com.example.babblechatapp.firebase.ListenerRegistry;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.Group;
+import com.example.babblechatapp.repositories.GroupRepository;
+import com.example.babblechatapp.repositories.UserRepository;
+import com.example.babblechatapp.utilities.AppExecutors;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.PreferenceManager;
+import com.example.babblechatapp.utilities.SerialExecutor;
+import com.example.babblechatapp.utilities.SortedMessageList;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Chat of a group: the newest page of history is read once, then a single listener follows the messages newer
+ * than it, whatever the number of members. Older history is read page by page as the user scrolls up.
+ * Messages are written straight to Firestore, which queues them while offline
+ */
+public class GroupChatActivity extends AppCompatActivity {
+
+    // number of messages fetched for every page of history
+    private static final int MESSAGE_PAGE_SIZE = 30;
+    // start fetching the previous page when the user scrolls this close to the oldest loaded message
+    private static final int PREFETCH_DISTANCE = 5;
+
+    private ActivityChatBinding binding;
+    private Group group;
+    private String userId;
+    private PreferenceManager preferenceManager;
+    private GroupRepository groupRepository;
+    private UserRepository userRepository;
+    private ChatAdapter chatAdapter;
+    // only touched from messageExecutor, the adapter receives copies of the list and never writes to the messages
+    private final SortedMessageList chatMessages = new SortedMessageList();
+    // decodes snapshots and updates chatMessages in arrival order, off the main thread
+    private final Executor messageExecutor = new SerialExecutor(AppExecutors.background());
+    // newest message received by the listener, which resumes after it on every start
+    private volatile Date lastSeenTimestamp;
+    // only touched from messageExecutor
+    private Date oldestLoadedTimestamp;
+    private boolean isLoadingMessages = true;
+    private boolean hasOlderMessages = true;
+    // senders whose profile was asked for, only the avatars of members who wrote something are fetched
+    private final Set<String> requestedSenderIds = new HashSet<>();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivityChatBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+        group = (Group) getIntent().getSerializableExtra(Constants.KEY_GROUP);
+        preferenceManager = new PreferenceManager(getApplicationContext());
+        userId = preferenceManager.getString(Constants.KEY_USER_ID);
+        groupRepository = new GroupRepository();
+        userRepository = new UserRepository(getApplicationContext());
+        chatAdapter = new ChatAdapter(userId);
+        binding.chatRecyclerView.setRecycledViewPool(ChatAdapter.createRecycledViewPool());
+        binding.chatRecyclerView.setAdapter(chatAdapter);
+        binding.textName.setText(group.name);
+        binding.textStatus.setText(getString(R.string.format_member_count, group.members.size()));
+        binding.textStatus.setVisibility(View.VISIBLE);
+        setListeners();
+        loadLatestMessages();
+    }
+
+    private void setListeners() {
+        binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.imageInfo.setOnClickListener(v -> confirmLeave());
+        binding.layoutSend.setOnClickListener(v -> sendMessage());
+        binding.chatRecyclerView.addOnScrollListener(loadOlderMessagesOnScroll());
+    }
+
+    @NonNull
+    private RecyclerView.OnScrollListener loadOlderMessagesOnScroll() {
+        return new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy >= 0 || isLoadingMessages || !hasOlderMessages) return;
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    loadOlderMessages();
+                }
+            }
+        };
+    }
+
+    /**
+     * Read the newest page, then listen only to what is newer than it
+     */
+    private void loadLatestMessages() {
+        groupRepository.getMessagesBeforeQuery(group.id, null, MESSAGE_PAGE_SIZE).get()
+                .addOnCompleteListener(messageExecutor, task -> {
+                    List<DocumentSnapshot> page = task.isSuccessful() ? task.getResult().getDocuments() : new ArrayList<>();
+                    addPageToMessageList(page);
+                    Date newestTimestamp = chatMessages.size() == 0 ? null : chatMessages.get(chatMessages.size() - 1).dateObject;
+                    boolean hasOlderPage = page.size() >= MESSAGE_PAGE_SIZE;
+                    submitMessages(true, () -> {
+                        isLoadingMessages = false;
+                        hasOlderMessages = hasOlderPage;
+                        listenNewMessages(newestTimestamp);
+                    });
+                });
+    }
+
+    private void loadOlderMessages() {
+        isLoadingMessages = true;
+        messageExecutor.execute(() -> groupRepository.getMessagesBeforeQuery(group.id, oldestLoadedTimestamp, MESSAGE_PAGE_SIZE).get()
+                .addOnCompleteListener(messageExecutor, task -> {
+                    if (!task.isSuccessful()) {
+                        AppExecutors.mainThread().execute(() -> isLoadingMessages = false);
+                        return;
+                    }
+                    List<DocumentSnapshot> page = task.getResult().getDocuments();
+                    addPageToMessageList(page);
+                    boolean hasOlderPage = page.size() >= MESSAGE_PAGE_SIZE;
+                    submitMessages(false, () -> {
+                        isLoadingMessages = false;
+                        hasOlderMessages = hasOlderPage;
+                    });
+                }));
+    }
+
+    /**
+     * Runs on messageExecutor
+     * @param page messages newest first, as the history query returns them
+     */
+    private void addPageToMessageList(List<DocumentSnapshot> page) {
+        for (DocumentSnapshot documentSnapshot : page) {
+            chatMessages.put(GroupRepository.getChatMessage(group.id, documentSnapshot));
+        }
+        if (!page.isEmpty()) oldestLoadedTimestamp = page.get(page.size() - 1).getDate(Constants.KEY_TIMESTAMP);
+    }
+
+    /**
+     * One listener for the whole group, detached while the screen is stopped and resumed after the newest message
+     * it received. Messages carry the server time, so a message from a member whose clock is late still sorts after
+     * the bound. Metadata changes are included, so a sent message stops showing as pending once it is written
+     */
+    private void listenNewMessages(Date newestTimestamp) {
+        lastSeenTimestamp = newestTimestamp;
+        ListenerRegistry.getInstance().register(this, "groupMessages", () -> groupRepository
+                .getNewMessagesQuery(group.id, lastSeenTimestamp)
+                .addSnapshotListener(messageExecutor, MetadataChanges.INCLUDE, eventListener));
+    }
+
+    /**
+     * Runs on messageExecutor: a burst of changes is decoded and applied off the main thread, then displayed in one submit
+     */
+    private final EventListener<QuerySnapshot> eventListener = (value, error) -> {
+        if (error != null || value == null || value.getDocumentChanges().isEmpty()) return;
+        boolean hasNewLastMessage = false;
+        for (DocumentChange documentChange : value.getDocumentChanges()) {
+            if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                chatMessages.remove(documentChange.getDocument().getId());
+                continue;
+            }
+            ChatMessage chatMessage = GroupRepository.getChatMessage(group.id, documentChange.getDocument());
+            chatMessage.pending = documentChange.getDocument().getMetadata().hasPendingWrites();
+            // a pending message isn't written yet, the listener must not resume after it
+            if (!chatMessage.pending && chatMessage.dateObject != null
+                    && (lastSeenTimestamp == null || chatMessage.dateObject.after(lastSeenTimestamp))) {
+                lastSeenTimestamp = chatMessage.dateObject;
+            }
+            int position = chatMessages.put(chatMessage);
+            if (position == chatMessages.size() - 1) hasNewLastMessage = true;
+        }
+        submitMessages(hasNewLastMessage, null);
+    };
+
+    /**
+     * The listener shows the message as pending right away, at the time estimated by the device, then as sent
+     * at the server's time once Firestore has written it
+     */
+    private void sendMessage() {
+        String text = binding.inputMessage.getText().toString();
+        if (text.trim().isEmpty()) return;
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = groupRepository.newMessageId(group.id);
+        chatMessage.conversationId = group.id;
+        chatMessage.senderId = userId;
+        chatMessage.senderName = preferenceManager.getString(Constants.KEY_NAME);
+        chatMessage.message = text;
+        groupRepository.send(chatMessage).addOnFailureListener(e -> {
+            Toast.makeText(getApplicationContext(), "Unable to send message", Toast.LENGTH_SHORT).show();
+            messageExecutor.execute(() -> {
+                chatMessages.remove(chatMessage.id);
+                submitMessages(false, null);
+            });
+        });
+        binding.inputMessage.setText(null);
+    }
+
+    private void confirmLeave() {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.leave_group)
+                .setPositiveButton(R.string.leave, (dialog, which) -> groupRepository.leave(group.id, userId)
+                        .addOnSuccessListener(unused -> finish())
+                        .addOnFailureListener(e -> Toast.makeText(getApplicationContext(), "Unable to leave the group", Toast.LENGTH_SHORT).show()))
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Hand a copy of the message list to the adapter, then fetch the profiles of the senders not seen yet
+     * @param scrollToLastMessage whether to jump to the newest message once the list is displayed
+     * @param onDisplayed called on the main thread once the list is displayed
+     */
+    private void submitMessages(boolean scrollToLastMessage, Runnable onDisplayed) {
+        List<ChatMessage> snapshot = new ArrayList<>(chatMessages.getMessages());
+        AppExecutors.mainThread().execute(() -> {
+            if (isDestroyed()) return;
+            chatAdapter.submitList(snapshot, () -> {
+                if (scrollToLastMessage && !snapshot.isEmpty()) {
+                    binding.chatRecyclerView.smoothScrollToPosition(snapshot.size() - 1);
+                }
+                binding.chatRecyclerView.setVisibility(View.VISIBLE);
+                binding.progressBar.setVisibility(View.GONE);
+                if (onDisplayed != null) onDisplayed.run();
+            });
+            fetchSenders(snapshot);
+        });
+    }
+
+    private void fetchSenders(List<ChatMessage> messages) {
+        Set<String> senderIds = new HashSet<>();
+        for (ChatMessage chatMessage : messages) {
+            if (chatMessage.senderId == null || userId.equals(chatMessage.senderId)) continue;
+            if (requestedSenderIds.add(chatMessage.senderId)) senderIds.add(chatMessage.senderId);
+        }
+        if (senderIds.isEmpty()) return;
+        userRepository.getUsers(senderIds).addOnSuccessListener(users -> {
+            if (!isDestroyed()) chatAdapter.setMembers(users);
+        });
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.babblechatapp.activities;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.PreferenceManager;
+
+/**
+ * Entry point of the app. It has no layout (the launch theme's window background is shown meanwhile),
+ * it only routes to the main screen or to the sign in screen, so signed-in users never inflate the sign in layout
+ */
+public class LauncherActivity extends AppCompatActivity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // the preferences are already being loaded by BabbleApplication, so this rarely waits on the disk
+        PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
+        Class<?> destination = preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)
+                ? MainActivity.class
+                : SignInActivity.class;
+        startActivity(new Intent(getApplicationContext(), destination));
+        finish();
+        // straight into the destination, the launcher window is the only transition
+        overridePendingTransition(0, 0);
+    }
+}
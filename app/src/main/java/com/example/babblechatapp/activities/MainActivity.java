@@ -2,33 +2,66 @@ package com.example.babblechatapp.activities;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
 import android.view.View;
 import android.widget.Toast;
 
+import com.example.babblechatapp.adapters.ConversationAdapter;
 import com.example.babblechatapp.databinding.ActivityMainBinding;
+import com.example.babblechatapp.firebase.InboxStream;
+import com.example.babblechatapp.firebase.ListenerRegistry;
+import com.example.babblechatapp.firebase.TokenRegistrationWorker;
+import com.example.babblechatapp.listeners.ConversationListener;
+import com.example.babblechatapp.models.Conversation;
+import com.example.babblechatapp.models.Group;
 import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.repositories.AccountRepository;
+import com.example.babblechatapp.repositories.ConversationRepository;
+import com.example.babblechatapp.repositories.GroupRepository;
+import com.example.babblechatapp.repositories.MessageRepository;
+import com.example.babblechatapp.utilities.AvatarCache;
 import com.example.babblechatapp.utilities.Constants;
 import com.example.babblechatapp.utilities.PreferenceManager;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.firestore.QuerySnapshot;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements ConversationListener {
+
+    private static final int CONVERSATION_PAGE_SIZE = 20;
+    // load the next page when the user scrolls this close to the end of the list
+    private static final int PREFETCH_DISTANCE = 5;
+    // most recent groups listed, with the conversations
+    private static final int GROUP_LIMIT = 50;
 
     // like any UI framework, everytime a View is created, framework automatically generates a Binding class for binding logic with GUI
     private ActivityMainBinding binding;
     private PreferenceManager preferenceManager;
+    private ConversationRepository conversationRepository;
+    private ConversationAdapter conversationAdapter;
+    // conversations by peer id: the live first page and the pages loaded after it
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    // groups of the user by id, listed with the conversations
+    private final Map<String, Group> groups = new HashMap<>();
+    private final List<Conversation> displayedConversations = new ArrayList<>();
+    private boolean isLoadingConversations;
+    private boolean hasMoreConversations = true;
+    private boolean isFullyDrawn;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -42,14 +75,173 @@ public class MainActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
         preferenceManager = new PreferenceManager(getApplicationContext());
         loadUserDetails();
-        getToken();
+        if (savedInstanceState == null) { // not again on rotation, the worker skips an unchanged token anyway
+            TokenRegistrationWorker.enqueue(getApplicationContext());
+        }
         // bind the button at the start of the program
         setListeners();
+        listenConversations();
     }
 
     private void setListeners() {
         binding.imageSignOut.setOnClickListener(v -> signOut());
         binding.fabNewChat.setOnClickListener(startUsersActivity());
+        binding.imageSearch.setOnClickListener(v -> startActivity(new Intent(getApplicationContext(), SearchActivity.class)));
+        binding.imageNewGroup.setOnClickListener(v -> startActivity(new Intent(getApplicationContext(), UsersActivity.class)
+                .putExtra(Constants.KEY_CREATE_GROUP, true)));
+        binding.conversationsRecyclerView.addOnScrollListener(loadMoreConversationsOnScroll());
+    }
+
+    @NonNull
+    private RecyclerView.OnScrollListener loadMoreConversationsOnScroll() {
+        return new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0 || isLoadingConversations || !hasMoreConversations) return;
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null && layoutManager.findLastVisibleItemPosition() >= displayedConversations.size() - PREFETCH_DISTANCE) {
+                    getNextPage();
+                }
+            }
+        };
+    }
+
+    /**
+     * Listen to the most recent conversations of the user while the screen is started. A new message moves
+     * its conversation into this page, older pages are only read once as the user scrolls.
+     * Read counts change without moving a conversation, so the whole page is listened to again on every start
+     * rather than only what changed after the newest conversation seen
+     */
+    private void listenConversations() {
+        conversationRepository = new ConversationRepository();
+        conversationAdapter = new ConversationAdapter(preferenceManager.getString(Constants.KEY_USER_ID), this);
+        binding.conversationsRecyclerView.setAdapter(conversationAdapter);
+        ListenerRegistry.getInstance().register(this, "conversations", () -> conversationRepository
+                .getConversationsQuery(preferenceManager.getString(Constants.KEY_USER_ID), null, CONVERSATION_PAGE_SIZE)
+                .addSnapshotListener(conversationsEventListener));
+        listenGroups();
+    }
+
+    /**
+     * Groups have no summary per member (a message would cost a write per member), their own documents are listed:
+     * one query on the groups the user is a member of, whose last message is updated by every message
+     */
+    private void listenGroups() {
+        GroupRepository groupRepository = new GroupRepository();
+        ListenerRegistry.getInstance().register(this, "groups", () -> groupRepository
+                .getGroupsQuery(preferenceManager.getString(Constants.KEY_USER_ID), GROUP_LIMIT)
+                .addSnapshotListener((value, error) -> {
+                    if (error != null || value == null) return;
+                    for (DocumentChange documentChange : value.getDocumentChanges()) {
+                        // the user left the group, or it was pushed out of the most recent ones
+                        if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                            groups.remove(documentChange.getDocument().getId());
+                        } else {
+                            Group group = GroupRepository.getGroup(documentChange.getDocument());
+                            groups.put(group.id, group);
+                        }
+                    }
+                    displayConversations();
+                }));
+    }
+
+    private final EventListener<QuerySnapshot> conversationsEventListener = (value, error) -> {
+        if (error != null || value == null) {
+            if (conversations.isEmpty()) showErrorMessage();
+            return;
+        }
+        for (DocumentChange documentChange : value.getDocumentChanges()) {
+            // a conversation pushed out of the page by a more recent one is REMOVED from the query but still exists,
+            // and summaries are never deleted, so only additions and modifications matter
+            if (documentChange.getType() == DocumentChange.Type.REMOVED) continue;
+            Conversation conversation = ConversationRepository.getConversation(documentChange.getDocument());
+            conversations.put(conversation.id, conversation);
+        }
+        if (value.size() < CONVERSATION_PAGE_SIZE) hasMoreConversations = false;
+        displayConversations();
+    };
+
+    private void getNextPage() {
+        Conversation oldestConversation = null;
+        // the pages are pages of summaries, groups are all listed already
+        for (int i = displayedConversations.size() - 1; i >= 0 && oldestConversation == null; i--) {
+            if (!displayedConversations.get(i).isGroup) oldestConversation = displayedConversations.get(i);
+        }
+        if (oldestConversation == null) return;
+        isLoadingConversations = true;
+        conversationRepository
+                .getConversationsQuery(preferenceManager.getString(Constants.KEY_USER_ID), oldestConversation.dateObject, CONVERSATION_PAGE_SIZE)
+                .get()
+                .addOnCompleteListener(task -> {
+                    isLoadingConversations = false;
+                    if (!task.isSuccessful() || task.getResult() == null) return;
+                    QuerySnapshot page = task.getResult();
+                    hasMoreConversations = page.size() >= CONVERSATION_PAGE_SIZE;
+                    for (int i = 0; i < page.size(); i++) {
+                        Conversation conversation = ConversationRepository.getConversation(page.getDocuments().get(i));
+                        // the live page already holds the latest version of a conversation that moved up meanwhile
+                        if (!conversations.containsKey(conversation.id)) conversations.put(conversation.id, conversation);
+                    }
+                    displayConversations();
+                });
+    }
+
+    private void displayConversations() {
+        displayedConversations.clear();
+        displayedConversations.addAll(conversations.values());
+        String userId = preferenceManager.getString(Constants.KEY_USER_ID);
+        for (Group group : groups.values()) {
+            displayedConversations.add(GroupRepository.getConversation(group, userId));
+        }
+        // most recent first
+        Collections.sort(displayedConversations, (first, second) -> {
+            if (first.dateObject == null || second.dateObject == null) {
+                return first.dateObject == null ? (second.dateObject == null ? 0 : 1) : -1;
+            }
+            return second.dateObject.compareTo(first.dateObject);
+        });
+        conversationAdapter.submitList(new ArrayList<>(displayedConversations));
+        binding.progressBar.setVisibility(View.GONE);
+        reportFullyDrawnOnce();
+        if (displayedConversations.isEmpty()) {
+            showErrorMessage();
+        } else {
+            binding.textErrorMessage.setVisibility(View.GONE);
+            binding.conversationsRecyclerView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * The screen is complete once the first conversations are shown, measured as time to full display by the startup benchmark
+     */
+    private void reportFullyDrawnOnce() {
+        if (isFullyDrawn) return;
+        isFullyDrawn = true;
+        reportFullyDrawn();
+    }
+
+    private void showErrorMessage() {
+        binding.progressBar.setVisibility(View.GONE);
+        reportFullyDrawnOnce();
+        binding.textErrorMessage.setText(String.format("%s", "No conversations yet, start one with the + button"));
+        binding.textErrorMessage.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void onConversationClicked(Conversation conversation) {
+        if (conversation.isGroup) {
+            Group group = groups.get(conversation.id);
+            if (group == null) return;
+            startActivity(new Intent(getApplicationContext(), GroupChatActivity.class).putExtra(Constants.KEY_GROUP, group));
+            return;
+        }
+        User user = new User();
+        user.id = conversation.id;
+        user.name = conversation.name;
+        user.imageHash = conversation.imageHash;
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        intent.putExtra(Constants.KEY_USER, user);
+        startActivity(intent);
     }
 
     @NonNull
@@ -70,9 +262,12 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void loadImage() {
-        byte[] bytes = Base64.decode(preferenceManager.getString(Constants.KEY_IMAGE), Base64.DEFAULT);
-        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-        binding.imageProfile.setImageBitmap(bitmap);
+        AvatarCache.getInstance().load(
+                binding.imageProfile,
+                preferenceManager.getString(Constants.KEY_USER_ID),
+                preferenceManager.getString(Constants.KEY_IMAGE),
+                preferenceManager.getString(Constants.KEY_IMAGE_HASH)
+        );
     }
 
     /**
@@ -83,22 +278,6 @@ public class MainActivity extends AppCompatActivity {
         Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
     }
 
-    private void getToken() {
-        FirebaseMessaging.getInstance().getToken().addOnSuccessListener(this::updateToken);
-    }
-
-    /**
-     * add FireCloudMessaging (FCM) Token after log in
-     * @param token - the token received from firebase
-     */
-    private void updateToken(String token) {
-        FirebaseFirestore database = getDatabase();
-        DocumentReference documentReference = getDocumentReference(database);
-        documentReference.update(Constants.KEY_FCM_TOKEN, token)
-                .addOnSuccessListener(unused -> showToast("Token update successfully"))
-                .addOnFailureListener(e -> showToast("Unable to update token! Going back to Login Screen"));
-    }
-
     @NonNull
     private FirebaseFirestore getDatabase() {
         return FirebaseFirestore.getInstance();
@@ -123,6 +302,7 @@ public class MainActivity extends AppCompatActivity {
     private void cleanUserDataAndBackToSignIn(DocumentReference documentReference) {
         HashMap<String, Object> updates = new HashMap<>();
         updates.put(Constants.KEY_FCM_TOKEN, FieldValue.delete());
+        updates.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
         documentReference.update(updates)
                 // if delete token function is executed -> the database is updated, then:
                 //      1. Clear the current shared preferences (the preference Manager)
@@ -139,7 +319,12 @@ public class MainActivity extends AppCompatActivity {
     @NonNull
     private OnSuccessListener<Void> startSignInActivity() {
         return unused -> {
+            // the stream listens to the messages of the user signing out
+            InboxStream.getInstance(getApplicationContext()).close();
             preferenceManager.clear();
+            new AccountRepository().signOut();
+            // the conversations stored on the device belong to the user signing out
+            new MessageRepository(getApplicationContext()).clear();
             startActivity(new Intent(getApplicationContext(), SignInActivity.class));
             finish();
         };
@@ -0,0 +1,151 @@
+package com.example.babblechatapp.activities;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.View;
+
+import com.example.babblechatapp.R;
+import com.example.babblechatapp.adapters.MessageSearchAdapter;
+import com.example.babblechatapp.databinding.ActivitySearchBinding;
+import com.example.babblechatapp.listeners.MessageSearchListener;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.MessageSearchResult;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.repositories.MessageRepository;
+import com.example.babblechatapp.repositories.UserRepository;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Search over the messages of every conversation stored on the device, opening a result shows the conversation
+ * around the message
+ */
+public class SearchActivity extends AppCompatActivity implements MessageSearchListener {
+
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    // a query only runs once typing pauses this long, so a burst of keystrokes is one search
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    private ActivitySearchBinding binding;
+    private PreferenceManager preferenceManager;
+    private MessageRepository messageRepository;
+    private UserRepository userRepository;
+    private MessageSearchAdapter messageSearchAdapter;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable search = this::search;
+    // bumped on every query change, results of an older query are dropped when they arrive
+    private int searchGeneration;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivitySearchBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+        preferenceManager = new PreferenceManager(getApplicationContext());
+        messageRepository = new MessageRepository(getApplicationContext());
+        userRepository = new UserRepository(getApplicationContext());
+        messageSearchAdapter = new MessageSearchAdapter(preferenceManager.getString(Constants.KEY_USER_ID), this);
+        binding.resultsRecyclerView.setAdapter(messageSearchAdapter);
+        setListeners();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(search);
+    }
+
+    private void setListeners() {
+        binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.inputSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchGeneration++;
+                handler.removeCallbacks(search);
+                handler.postDelayed(search, SEARCH_DEBOUNCE_MS);
+            }
+        });
+    }
+
+    /**
+     * Query the message index, then look up the other user of every conversation found
+     */
+    private void search() {
+        int generation = searchGeneration;
+        String query = binding.inputSearch.getText().toString();
+        if (query.trim().isEmpty()) {
+            displayResults(new ArrayList<>());
+            binding.textErrorMessage.setVisibility(View.GONE);
+            return;
+        }
+        binding.progressBar.setVisibility(View.VISIBLE);
+        String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
+        List<ChatMessage> messages = new ArrayList<>();
+        messageRepository.search(query, SEARCH_RESULT_LIMIT)
+                .continueWithTask(task -> {
+                    messages.addAll(task.getResult());
+                    Set<String> peerIds = new HashSet<>();
+                    for (ChatMessage chatMessage : messages) {
+                        peerIds.add(getPeerId(chatMessage, currentUserId));
+                    }
+                    return userRepository.getUsers(peerIds);
+                })
+                .addOnCompleteListener(task -> {
+                    if (generation != searchGeneration || isDestroyed()) return;
+                    binding.progressBar.setVisibility(View.GONE);
+                    if (!task.isSuccessful()) return;
+                    List<MessageSearchResult> results = new ArrayList<>();
+                    for (ChatMessage chatMessage : messages) {
+                        MessageSearchResult messageSearchResult = new MessageSearchResult();
+                        messageSearchResult.chatMessage = chatMessage;
+                        messageSearchResult.peer = task.getResult().get(getPeerId(chatMessage, currentUserId));
+                        // the peer's profile is gone
+                        if (messageSearchResult.peer != null) results.add(messageSearchResult);
+                    }
+                    displayResults(results);
+                    if (results.isEmpty()) {
+                        binding.textErrorMessage.setText(R.string.no_message_found);
+                        binding.textErrorMessage.setVisibility(View.VISIBLE);
+                    } else {
+                        binding.textErrorMessage.setVisibility(View.GONE);
+                    }
+                });
+    }
+
+    private void displayResults(List<MessageSearchResult> results) {
+        messageSearchAdapter.submitList(results);
+        binding.resultsRecyclerView.setVisibility(results.isEmpty() ? View.GONE : View.VISIBLE);
+    }
+
+    private static String getPeerId(ChatMessage chatMessage, String currentUserId) {
+        return currentUserId.equals(chatMessage.senderId) ? chatMessage.receiverId : chatMessage.senderId;
+    }
+
+    @Override
+    public void onSearchResultClicked(MessageSearchResult messageSearchResult) {
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        intent.putExtra(Constants.KEY_USER, messageSearchResult.peer);
+        intent.putExtra(Constants.KEY_MESSAGE_ID, messageSearchResult.chatMessage.id);
+        intent.putExtra(Constants.KEY_MESSAGE_TIMESTAMP, messageSearchResult.chatMessage.dateObject.getTime());
+        startActivity(intent);
+    }
+}
@@ -10,12 +10,14 @@ import android.view.View;
 import android.widget.Toast;
 
 import com.example.babblechatapp.databinding.ActivitySignInBinding;
+import com.example.babblechatapp.firebase.AvatarStore;
+import com.example.babblechatapp.repositories.AccountRepository;
 import com.example.babblechatapp.utilities.Constants;
 import com.example.babblechatapp.utilities.PreferenceManager;
+import com.example.babblechatapp.utilities.TextNormalizer;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.FieldValue;
 
 public class SignInActivity extends AppCompatActivity {
 
@@ -26,12 +28,7 @@ public class SignInActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         preferenceManager = new PreferenceManager(getApplicationContext());
-        // start the main screen once the sign in process is finished
-        if (preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) {
-            Intent intent = new Intent(getApplicationContext(), MainActivity.class);
-            startActivity(intent);
-            finish();
-        }
+        // signed-in users are sent to the main screen by LauncherActivity
         binding = ActivitySignInBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         setListeners();
@@ -56,13 +53,9 @@ public class SignInActivity extends AppCompatActivity {
 
     private void processSignIn() {
         loading(true);
-        FirebaseFirestore database = getDatabase();
-        database.collection(Constants.KEY_COLLECTION_USERS)
-                // from the input email and password, we search in the database matching result
-                .whereEqualTo(Constants.KEY_EMAIL, binding.inputEmail.getText().toString())
-                .whereEqualTo(Constants.KEY_PASSWORD, binding.inputPassword.getText().toString())
-                // then get the result
-                .get()
+        // the email and password are checked by Firebase Auth, then the profile of the account is read
+        new AccountRepository()
+                .signIn(binding.inputEmail.getText().toString(), binding.inputPassword.getText().toString())
                 // at the end of listening event, put all the account information/settings into the preference manager
                 // this preference manager will be shared through an XML, and MainActivity will from there extract information from it to display
                 // using preference manager is a good way to send data across different class (similar to storing database locally into XML for sharing between classes. instead of other types of database)
@@ -70,39 +63,65 @@ public class SignInActivity extends AppCompatActivity {
     }
 
     @NonNull
-    private OnCompleteListener<QuerySnapshot> completeSignIn() {
+    private OnCompleteListener<DocumentSnapshot> completeSignIn() {
         return task -> {
-            if (task.isSuccessful() && task.getResult() != null && task.getResult().getDocuments().size() > 0) {
-                DocumentSnapshot documentSnapshot = getDocumentSnapshot(task);
-                addUserToSharedPreferences(documentSnapshot);
+            if (task.isSuccessful()) {
+                addUserToSharedPreferences(task.getResult());
                 startMainActivity();
             } else {
                 loading(false);
-                showToast("Unable to sign in");
+                showToast(task.getException() instanceof AccountRepository.PasswordResetRequiredException
+                        ? "Check your email to choose a new password"
+                        : "Unable to sign in");
             }
         };
     }
 
-    @NonNull
-    private FirebaseFirestore getDatabase() {
-        return FirebaseFirestore.getInstance();
-    }
-
     private void startMainActivity() {
         Intent intent = new Intent(getApplicationContext(), MainActivity.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
         startActivity(intent);
     }
 
-    private DocumentSnapshot getDocumentSnapshot(com.google.android.gms.tasks.Task<com.google.firebase.firestore.QuerySnapshot> task) {
-        return task.getResult().getDocuments().get(0);
+    private void addUserToSharedPreferences(DocumentSnapshot documentSnapshot) {
+        preferenceManager.edit()
+                .putBoolean(Constants.KEY_IS_SIGNED_IN, true)
+                .putString(Constants.KEY_USER_ID, documentSnapshot.getId())
+                .putString(Constants.KEY_NAME, documentSnapshot.getString(Constants.KEY_NAME))
+                .putString(Constants.KEY_IMAGE, documentSnapshot.getString(Constants.KEY_IMAGE))
+                .putString(Constants.KEY_IMAGE_HASH, documentSnapshot.getString(Constants.KEY_IMAGE_HASH))
+                .apply();
+        migrateLegacyAvatar(documentSnapshot);
+        addSearchFields(documentSnapshot);
     }
 
-    private void addUserToSharedPreferences(DocumentSnapshot documentSnapshot) {
-        preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
-        preferenceManager.putString(Constants.KEY_USER_ID, documentSnapshot.getId());
-        preferenceManager.putString(Constants.KEY_NAME, documentSnapshot.getString(Constants.KEY_NAME));
-        preferenceManager.putString(Constants.KEY_IMAGE, documentSnapshot.getString(Constants.KEY_IMAGE));
+    /**
+     * Accounts created before user search lack the normalized name and email the search queries, add them
+     * @param documentSnapshot the signed in user
+     */
+    private void addSearchFields(DocumentSnapshot documentSnapshot) {
+        if (documentSnapshot.contains(Constants.KEY_NAME_LOWER)) return;
+        documentSnapshot.getReference().update(
+                Constants.KEY_NAME_LOWER, TextNormalizer.normalize(documentSnapshot.getString(Constants.KEY_NAME)),
+                Constants.KEY_EMAIL_LOWER, TextNormalizer.normalize(documentSnapshot.getString(Constants.KEY_EMAIL)),
+                Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp()
+        );
+    }
+
+    /**
+     * Accounts created before avatars moved to the image store still hold the full image inline,
+     * move it to the store so the users collection only carries a thumbnail
+     * @param documentSnapshot the signed in user
+     */
+    private void migrateLegacyAvatar(DocumentSnapshot documentSnapshot) {
+        String encodedImage = documentSnapshot.getString(Constants.KEY_IMAGE);
+        if (encodedImage == null || documentSnapshot.contains(Constants.KEY_IMAGE_HASH)) return;
+        AvatarStore.getInstance(getApplicationContext())
+                .migrateLegacyAvatar(documentSnapshot.getReference(), encodedImage)
+                .addOnSuccessListener(updates -> preferenceManager.edit()
+                        .putString(Constants.KEY_IMAGE, (String) updates.get(Constants.KEY_IMAGE))
+                        .putString(Constants.KEY_IMAGE_HASH, (String) updates.get(Constants.KEY_IMAGE_HASH))
+                        .apply());
     }
 
     private void loading(Boolean isLoading) {
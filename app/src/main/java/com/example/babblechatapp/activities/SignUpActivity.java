@@ -6,31 +6,35 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.util.Base64;
 import android.util.Patterns;
 import android.view.View;
 import android.widget.Toast;
 
 import com.example.babblechatapp.databinding.ActivitySignUpBinding;
+import com.example.babblechatapp.firebase.AvatarStore;
+import com.example.babblechatapp.firebase.AvatarUploadWorker;
+import com.example.babblechatapp.repositories.AccountRepository;
+import com.example.babblechatapp.utilities.AvatarPipeline;
 import com.example.babblechatapp.utilities.Constants;
 import com.example.babblechatapp.utilities.PreferenceManager;
-import com.google.firebase.firestore.FirebaseFirestore;
+import com.example.babblechatapp.utilities.TextNormalizer;
+import com.google.firebase.firestore.FieldValue;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.HashMap;
 
 public class SignUpActivity extends AppCompatActivity {
 
     private ActivitySignUpBinding binding;
     private PreferenceManager preferenceManager;
+    // inline thumbnail stored in the user document
     private String encodedImage;
+    // display size image uploaded to the image store
+    private byte[] displayImage;
+    // content hash of displayImage once uploaded
+    private String imageHash;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -72,14 +76,30 @@ public class SignUpActivity extends AppCompatActivity {
     }
 
     /**
-     * Putting the users information input into the database (Firestore)
+     * Hash the profile image, create the account (Firebase Auth) and put the users information input into the
+     * database (Firestore), then upload the image to the image store, which only signed-in users may write to.
+     * A failed upload is retried in the background from the disk cache
      */
     private void processSignUp() {
         loading(true);
-        FirebaseFirestore database = FirebaseFirestore.getInstance();
-        HashMap<String, Object> user = createNewUser();
-        database.collection(Constants.KEY_COLLECTION_USERS)
-                .add(user)
+        AvatarStore avatarStore = AvatarStore.getInstance(getApplicationContext());
+        avatarStore.save(displayImage)
+                .continueWithTask(task -> {
+                    if (!task.isSuccessful()) throw task.getException();
+                    imageHash = task.getResult();
+                    return new AccountRepository().signUp(
+                            binding.inputEmail.getText().toString(), binding.inputPassword.getText().toString(), createNewUser()
+                    );
+                })
+                .continueWithTask(task -> {
+                    if (!task.isSuccessful()) throw task.getException();
+                    com.google.firebase.firestore.DocumentReference documentReference = task.getResult();
+                    // the account exists either way, others see the inline thumbnail until the image is stored
+                    return avatarStore.upload(displayImage).continueWith(uploadTask -> {
+                        if (!uploadTask.isSuccessful()) AvatarUploadWorker.enqueue(getApplicationContext(), imageHash);
+                        return documentReference;
+                    });
+                })
                 .addOnSuccessListener(this::completeSignUp)
                 .addOnFailureListener(exception -> {
                     loading(false);
@@ -99,8 +119,11 @@ public class SignUpActivity extends AppCompatActivity {
         HashMap<String, Object> user = new HashMap<>();
         user.put(Constants.KEY_NAME, binding.inputName.getText().toString());
         user.put(Constants.KEY_EMAIL, binding.inputEmail.getText().toString());
-        user.put(Constants.KEY_PASSWORD, binding.inputPassword.getText().toString());
+        user.put(Constants.KEY_NAME_LOWER, TextNormalizer.normalize(binding.inputName.getText().toString()));
+        user.put(Constants.KEY_EMAIL_LOWER, TextNormalizer.normalize(binding.inputEmail.getText().toString()));
         user.put(Constants.KEY_IMAGE, encodedImage);
+        user.put(Constants.KEY_IMAGE_HASH, imageHash);
+        user.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
         return user;
     }
 
@@ -109,10 +132,13 @@ public class SignUpActivity extends AppCompatActivity {
      * @param documentReference which is a reference to the database
      */
     private void addUserToSharedPreferences(com.google.firebase.firestore.DocumentReference documentReference) {
-        preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
-        preferenceManager.putString(Constants.KEY_USER_ID, documentReference.getId());
-        preferenceManager.putString(Constants.KEY_NAME, binding.inputName.getText().toString());
-        preferenceManager.putString(Constants.KEY_IMAGE, encodedImage);
+        preferenceManager.edit()
+                .putBoolean(Constants.KEY_IS_SIGNED_IN, true)
+                .putString(Constants.KEY_USER_ID, documentReference.getId())
+                .putString(Constants.KEY_NAME, binding.inputName.getText().toString())
+                .putString(Constants.KEY_IMAGE, encodedImage)
+                .putString(Constants.KEY_IMAGE_HASH, imageHash)
+                .apply();
     }
 
     private void startMainActivity() {
@@ -151,42 +177,26 @@ public class SignUpActivity extends AppCompatActivity {
         return true;
     }
 
-    /**
-     * Encoding image to base-64 string
-     * @param bitmap The bitmap image
-     * @return a String that holds the encoded value of image (i.e. iVBORw0KGgoAAAANSUhEUgAAACAAAAAgCAMAAABEpIrGAAAABGdBTUEAALGPC/xhBQAAAAFzUkdCAK7OHOkAAAAgY0hSTQAAeiYAAICEAAD6AAAAgOgAAHUwAADqYAAAOpgwnLpRPAAA...)
-     */
-    private String encodeImage(Bitmap bitmap) {
-        int previewWidth = 150;
-        int previewHeight = bitmap.getHeight() * previewWidth / bitmap.getWidth();
-        Bitmap previewBitmap = Bitmap.createScaledBitmap(bitmap,previewWidth,previewHeight, false);
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        // REDUCE THE QUALITY OF THE IMAGE
-        previewBitmap.compress(Bitmap.CompressFormat.JPEG,50,byteArrayOutputStream);
-        byte[] bytes = byteArrayOutputStream.toByteArray();
-        return Base64.encodeToString(bytes, Base64.DEFAULT);
-    }
-
     private final ActivityResultLauncher<Intent> pickImage = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), this::setImage);
 
     /**
-     * set image if from uri if uri valid, else throw exception
+     * set image from uri if uri valid, the image is decoded and encoded in its stored sizes on the background pool
       * @param uri The uri retrieved from user action of choosing image (path)
      */
     private void setImage(androidx.activity.result.ActivityResult uri) {
-        if (uri.getResultCode() == RESULT_OK)
-            if (uri.getData() != null) {
-                Uri imageUri = uri.getData().getData();
-                try {
-                    InputStream inputStream = getContentResolver().openInputStream(imageUri);
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    binding.imageProfile.setImageBitmap(bitmap);
+        if (uri.getResultCode() != RESULT_OK || uri.getData() == null || uri.getData().getData() == null) return;
+        Uri imageUri = uri.getData().getData();
+        AvatarPipeline.process(getContentResolver(), imageUri)
+                .addOnSuccessListener(avatar -> {
+                    if (isDestroyed()) return;
+                    binding.imageProfile.setImageBitmap(avatar.preview);
                     binding.textAddImage.setVisibility(View.GONE);
-                    encodedImage = encodeImage(bitmap);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                }
-            }
+                    encodedImage = avatar.thumbnail;
+                    displayImage = avatar.display;
+                })
+                .addOnFailureListener(exception -> {
+                    if (!isDestroyed()) showToast("Unable to read this image");
+                });
     }
 
     /**
@@ -2,29 +2,61 @@ package com.example.babblechatapp.activities;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Parcelable;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.widget.Toast;
 
+import com.example.babblechatapp.R;
 import com.example.babblechatapp.adapters.UserAdapter;
 import com.example.babblechatapp.databinding.ActivityUsersBinding;
 import com.example.babblechatapp.listeners.UserListener;
 import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.repositories.GroupRepository;
+import com.example.babblechatapp.repositories.UserRepository;
 import com.example.babblechatapp.utilities.Constants;
 import com.example.babblechatapp.utilities.PreferenceManager;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.example.babblechatapp.utilities.TextNormalizer;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class UsersActivity extends AppCompatActivity implements UserListener {
 
+    private static final int USER_PAGE_SIZE = 30;
+    // load the next page when the user scrolls this close to the end of the list
+    private static final int PREFETCH_DISTANCE = 10;
+    private static final int SEARCH_RESULT_LIMIT = 30;
+    // Firestore is only searched once typing pauses this long, the cache is searched on every keystroke
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+
     // this is the auto-binding generated by Java
     private ActivityUsersBinding binding;
     private PreferenceManager preferenceManager;
+    private UserRepository userRepository;
+    private final List<User> users = new ArrayList<>();
+    private UserAdapter userAdapter;
+    private boolean isLoadingUsers;
+    private boolean hasMoreUsers = true;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable searchServer = this::searchServer;
+    // normalized query, empty while the directory is shown
+    private String searchQuery = "";
+    // bumped on every query change, results of an older query are dropped when they arrive
+    private int searchGeneration;
+    // opened to pick the members of a new group rather than the peer of a chat
+    private boolean isCreatingGroup;
+    private final Set<String> selectedUserIds = new LinkedHashSet<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -32,69 +64,181 @@ public class UsersActivity extends AppCompatActivity implements UserListener {
         binding = ActivityUsersBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         preferenceManager = new PreferenceManager(getApplicationContext());
+        userRepository = new UserRepository(getApplicationContext());
+        isCreatingGroup = getIntent().getBooleanExtra(Constants.KEY_CREATE_GROUP, false);
+        userAdapter = new UserAdapter(users, this, isCreatingGroup ? selectedUserIds : null);
+        binding.usersRecyclerView.setAdapter(userAdapter);
+        if (isCreatingGroup) {
+            binding.textTitle.setText(R.string.new_group);
+            binding.inputGroupName.setVisibility(View.VISIBLE);
+            binding.imageCreateGroup.setVisibility(View.VISIBLE);
+        }
         getUsers();
         setListeners();
     }
 
     private void setListeners() {
         binding.imageBack.setOnClickListener(v -> onBackPressed()); // built-in function, used to go back to previous Activity
+        binding.imageCreateGroup.setOnClickListener(v -> createGroup());
+        binding.usersRecyclerView.addOnScrollListener(loadMoreUsersOnScroll());
+        binding.inputSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search(TextNormalizer.normalize(s.toString()));
+            }
+        });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(searchServer);
+    }
+
+    @NonNull
+    private RecyclerView.OnScrollListener loadMoreUsersOnScroll() {
+        return new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0 || isLoadingUsers || !hasMoreUsers || !searchQuery.isEmpty()) return;
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null && layoutManager.findLastVisibleItemPosition() >= users.size() - PREFETCH_DISTANCE) {
+                    getNextPage();
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the first page from the on-device cache right away, then bring the cache up to date
+     * and reload the first page if anything changed
+     */
     private void getUsers() {
         loading(true);
-        FirebaseFirestore database = getDatabase();
-        database.collection(Constants.KEY_COLLECTION_USERS)
-                .get()
-                .addOnCompleteListener(queryDocumentSnapshots -> {
+        isLoadingUsers = true;
+        String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
+        userRepository.getCachedPage(null, currentUserId, USER_PAGE_SIZE)
+                .addOnSuccessListener(this::displayFirstPage)
+                .continueWithTask(task -> userRepository.refresh())
+                .continueWithTask(task -> userRepository.getPage(null, currentUserId, USER_PAGE_SIZE))
+                .addOnCompleteListener(task -> {
+                    isLoadingUsers = false;
                     loading(false);
-                    displayListOfUsers(queryDocumentSnapshots);
+                    if (task.isSuccessful() && task.getResult() != null) {
+                        displayFirstPage(task.getResult());
+                    } else if (users.isEmpty() && searchQuery.isEmpty()) {
+                        showErrorMessage();
+                    }
                 });
     }
 
-    @NonNull
-    private FirebaseFirestore getDatabase() {
-        return FirebaseFirestore.getInstance();
+    private void getNextPage() {
+        isLoadingUsers = true;
+        userRepository.getPage(users.get(users.size() - 1), preferenceManager.getString(Constants.KEY_USER_ID), USER_PAGE_SIZE)
+                .addOnCompleteListener(task -> {
+                    isLoadingUsers = false;
+                    if (!task.isSuccessful() || task.getResult() == null || !searchQuery.isEmpty()) return;
+                    List<User> page = task.getResult();
+                    hasMoreUsers = !page.isEmpty();
+                    int positionStart = users.size();
+                    users.addAll(page);
+                    userAdapter.notifyItemRangeInserted(positionStart, page.size());
+                });
     }
 
-    private void displayListOfUsers(com.google.android.gms.tasks.Task<com.google.firebase.firestore.QuerySnapshot> queryDocumentSnapshots) {
+    /**
+     * Show the cached users matching the query right away, then the matches from Firestore once typing pauses
+     * @param query normalized query, empty to go back to the directory
+     */
+    private void search(String query) {
+        if (query.equals(searchQuery)) return;
+        searchQuery = query;
+        int generation = ++searchGeneration;
+        handler.removeCallbacks(searchServer);
         String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
-        if (queryDocumentSnapshots.isSuccessful() && queryDocumentSnapshots.getResult() != null) {
-            List<User> users = new ArrayList<>();
-            for (QueryDocumentSnapshot queryDocumentSnapshot : queryDocumentSnapshots.getResult()) {
-                if (currentUserId.equals(queryDocumentSnapshot.getId())) continue; // if the user is the current user -> not display it
-                addUserFromDBToUsers(users, queryDocumentSnapshot);
-            }
-            setUsersToRecyclerView(users);
-        } else {
-            showErrorMessage();
+        if (query.isEmpty()) {
+            userRepository.getCachedPage(null, currentUserId, USER_PAGE_SIZE).addOnSuccessListener(page -> {
+                if (generation != searchGeneration) return;
+                if (page.isEmpty()) {
+                    // nothing cached yet, drop the matches Firestore found
+                    users.clear();
+                    userAdapter.notifyDataSetChanged();
+                }
+                displayFirstPage(page);
+            });
+            return;
         }
+        userRepository.searchCached(query, currentUserId, SEARCH_RESULT_LIMIT).addOnSuccessListener(results -> {
+            if (generation == searchGeneration) displaySearchResults(results);
+        });
+        handler.postDelayed(searchServer, SEARCH_DEBOUNCE_MS);
     }
 
+    /**
+     * Add the users only Firestore knows about (the cache is still incomplete) after the cached matches
+     */
+    private void searchServer() {
+        int generation = searchGeneration;
+        userRepository.search(searchQuery, preferenceManager.getString(Constants.KEY_USER_ID), SEARCH_RESULT_LIMIT)
+                .addOnSuccessListener(results -> {
+                    if (generation != searchGeneration || results.isEmpty()) return;
+                    Set<String> shownIds = new HashSet<>();
+                    for (User user : users) {
+                        shownIds.add(user.id);
+                    }
+                    int positionStart = users.size();
+                    for (User user : results) {
+                        if (users.size() < SEARCH_RESULT_LIMIT && shownIds.add(user.id)) users.add(user);
+                    }
+                    if (users.size() == positionStart) return;
+                    userAdapter.notifyItemRangeInserted(positionStart, users.size() - positionStart);
+                    binding.textErrorMessage.setVisibility(View.GONE);
+                    binding.usersRecyclerView.setVisibility(View.VISIBLE);
+                });
+    }
 
-    private void setUsersToRecyclerView(List<User> users) {
-        if (users.size() > 0) {
-            // use UserAdapter to display from code data -> appearance
-            UserAdapter userAdapter = new UserAdapter(users, this);
-            binding.usersRecyclerView.setAdapter(userAdapter);
-            binding.usersRecyclerView.setVisibility(View.VISIBLE);
+    private void displaySearchResults(List<User> results) {
+        loading(false);
+        users.clear();
+        users.addAll(results);
+        userAdapter.notifyDataSetChanged();
+        if (results.isEmpty()) {
+            binding.textErrorMessage.setText(R.string.no_user_found);
+            binding.textErrorMessage.setVisibility(View.VISIBLE);
         } else {
-            showErrorMessage();
+            binding.textErrorMessage.setVisibility(View.GONE);
+            binding.usersRecyclerView.setVisibility(View.VISIBLE);
         }
     }
 
-    private void addUserFromDBToUsers(List<User> users, QueryDocumentSnapshot queryDocumentSnapshot) {
-        User user = new User();
-        user.name = queryDocumentSnapshot.getString(Constants.KEY_NAME);
-        user.email = queryDocumentSnapshot.getString(Constants.KEY_EMAIL);
-        user.image = queryDocumentSnapshot.getString(Constants.KEY_IMAGE);
-        user.token = queryDocumentSnapshot.getString(Constants.KEY_FCM_TOKEN);
-        user.id = queryDocumentSnapshot.getId();
-        users.add(user);
+    private void displayFirstPage(List<User> page) {
+        // a search replaced the directory while the page was loading
+        if (!searchQuery.isEmpty()) return;
+        if (page.isEmpty()) {
+            if (!isLoadingUsers) showErrorMessage();
+            return;
+        }
+        loading(false);
+        // the first page replaces whatever is shown, pages loaded after it are dropped with it
+        users.clear();
+        users.addAll(page);
+        hasMoreUsers = true;
+        userAdapter.notifyDataSetChanged();
+        binding.textErrorMessage.setVisibility(View.GONE);
+        binding.usersRecyclerView.setVisibility(View.VISIBLE);
     }
 
     private void showErrorMessage() {
         binding.textErrorMessage.setText(String.format("%s", "No user available"));
-        binding.textErrorMessage.setVisibility(View.INVISIBLE);
+        binding.textErrorMessage.setVisibility(View.VISIBLE);
     }
 
     private void loading(Boolean isLoading) {
@@ -105,8 +249,54 @@ public class UsersActivity extends AppCompatActivity implements UserListener {
         }
     }
 
+    /**
+     * Write the group with the picked members, then open its chat in place of this screen
+     */
+    private void createGroup() {
+        String name = binding.inputGroupName.getText().toString().trim();
+        if (name.isEmpty()) {
+            showToast("Enter a group name");
+            return;
+        }
+        if (selectedUserIds.isEmpty()) {
+            showToast("Select the members of the group");
+            return;
+        }
+        // the creator is a member too
+        if (selectedUserIds.size() + 1 > GroupRepository.MAX_MEMBERS) {
+            showToast("A group has at most " + GroupRepository.MAX_MEMBERS + " members");
+            return;
+        }
+        User creator = new User();
+        creator.id = preferenceManager.getString(Constants.KEY_USER_ID);
+        creator.name = preferenceManager.getString(Constants.KEY_NAME);
+        binding.imageCreateGroup.setEnabled(false);
+        loading(true);
+        new GroupRepository().create(creator, name, selectedUserIds).addOnCompleteListener(task -> {
+            loading(false);
+            if (!task.isSuccessful()) {
+                binding.imageCreateGroup.setEnabled(true);
+                showToast("Unable to create the group");
+                return;
+            }
+            Intent intent = new Intent(getApplicationContext(), GroupChatActivity.class);
+            intent.putExtra(Constants.KEY_GROUP, task.getResult());
+            startActivity(intent);
+            finish();
+        });
+    }
+
+    private void showToast(String message) {
+        Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+    }
+
     @Override
     public void onUserClicked(User user) {
+        if (isCreatingGroup) {
+            if (!selectedUserIds.remove(user.id)) selectedUserIds.add(user.id);
+            userAdapter.notifyItemChanged(users.indexOf(user));
+            return;
+        }
         Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
         intent.putExtra(Constants.KEY_USER, user);
         startActivity(intent);
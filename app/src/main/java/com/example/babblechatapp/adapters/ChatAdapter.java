@@ -1,38 +1,203 @@
 package com.example.babblechatapp.adapters;
 
-import android.graphics.Bitmap;
-import android.text.Layout;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.ObjectsCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.babblechatapp.R;
 import com.example.babblechatapp.databinding.ItemContainerReceivedMessageBinding;
 import com.example.babblechatapp.databinding.ItemContainterSentMessageBinding;
 import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.AvatarCache;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.DateFormatUtils;
 
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class ChatAdapter extends ListAdapter<ChatMessage, RecyclerView.ViewHolder> {
 
-    private List<ChatMessage> chatMessages;
-    private final Bitmap receiverProfileImage;
+    // null in a group, whose members are looked up by id
+    private final User receiverUser;
     private final String senderId;
+    // profiles of the group members by id, a sender not fetched yet is shown from the name carried by its messages
+    private final Map<String, User> members = new HashMap<>();
+    // watermarks of the receiver, see setReceipts
+    private Date deliveredAt, readAt;
+    // state of the rows by message id, kept here rather than on the messages, which the activity copies off the main thread
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private final Map<String, String> dateTimes = new HashMap<>();
+    // ids of the last messages of runs of received messages, the only ones showing the avatar
+    private final Set<String> avatarMessageIds = new HashSet<>();
 
     public static final int VIEW_TYPE_SENT = 1;
     public static final int VIEW_TYPE_RECEIVED = 2;
+    // rows of each type kept for reuse, a screen of short bubbles plus a fling needs far more than the default 5
+    private static final int MAX_RECYCLED_VIEWS = 20;
+    // rebinds only the avatar of a row, whose neighbour changed
+    private static final Object PAYLOAD_AVATAR = new Object();
+    // rebinds only the status of a sent message
+    private static final Object PAYLOAD_STATUS = new Object();
 
     /**
-     * Constructor for ChatAdapter (converting from Java content -> appearance element (.xml))
-     * @param chatMessages list of chat messages
-     * @param receiverProfileImage profile image of the receiver
+     * Compares message lists on a background thread (AsyncListDiffer), so only the changed rows are rebound
+     */
+    private static final DiffUtil.ItemCallback<ChatMessage> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatMessage>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return ObjectsCompat.equals(oldItem.id, newItem.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return ObjectsCompat.equals(oldItem.message, newItem.message)
+                    && ObjectsCompat.equals(oldItem.senderId, newItem.senderId)
+                    && ObjectsCompat.equals(oldItem.dateObject, newItem.dateObject)
+                    && oldItem.pending == newItem.pending;
+        }
+    };
+
+    /**
+     * Constructor for ChatAdapter (converting from Java content -> appearance element (.xml)).
+     * The messages themselves are handed over with {@link #submitList(java.util.List)}
+     * @param receiverUser the receiver, whose profile image is shown next to received messages, null in a group
      * @param senderId id of the sender
      */
-    public ChatAdapter(List<ChatMessage> chatMessages, Bitmap receiverProfileImage, String senderId) {
-        this.chatMessages = chatMessages;
-        this.receiverProfileImage = receiverProfileImage;
+    public ChatAdapter(User receiverUser, String senderId) {
+        super(DIFF_CALLBACK);
+        this.receiverUser = receiverUser;
         this.senderId = senderId;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Adapter of a group conversation, whose received messages show the name and avatar of their sender.
+     * The profiles of the senders are handed over with {@link #setMembers(Map)} once fetched
+     * @param senderId id of the signed-in user
+     */
+    public ChatAdapter(String senderId) {
+        this(null, senderId);
+    }
+
+    /**
+     * Show the avatars of these group members, only the avatar of the received rows is rebound
+     * @param members profiles by user id
+     */
+    public void setMembers(Map<String, User> members) {
+        this.members.putAll(members);
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_AVATAR);
+    }
+
+    @NonNull
+    private User getSender(ChatMessage chatMessage) {
+        if (receiverUser != null) return receiverUser;
+        User sender = members.get(chatMessage.senderId);
+        if (sender == null) {
+            // kept, so the row doesn't reload its avatar until the profile arrives
+            sender = new User();
+            sender.id = chatMessage.senderId;
+            sender.name = chatMessage.senderName;
+            members.put(sender.id, sender);
+        }
+        return sender;
+    }
+
+    /**
+     * @return pool sized for the chat screen, to be used by one chat only (rows hold the avatar of its receiver)
+     */
+    @NonNull
+    public static RecyclerView.RecycledViewPool createRecycledViewPool() {
+        RecyclerView.RecycledViewPool recycledViewPool = new RecyclerView.RecycledViewPool();
+        recycledViewPool.setMaxRecycledViews(VIEW_TYPE_SENT, MAX_RECYCLED_VIEWS);
+        recycledViewPool.setMaxRecycledViews(VIEW_TYPE_RECEIVED, MAX_RECYCLED_VIEWS);
+        return recycledViewPool;
+    }
+
+    @Override
+    public void submitList(@Nullable List<ChatMessage> list) {
+        prepareMessages(list);
+        super.submitList(list);
+    }
+
+    @Override
+    public void submitList(@Nullable List<ChatMessage> list, @Nullable Runnable commitCallback) {
+        prepareMessages(list);
+        super.submitList(list, commitCallback);
+    }
+
+    /**
+     * Compute the stable id of the messages new to the adapter, once per message
+     */
+    private void prepareMessages(@Nullable List<ChatMessage> messages) {
+        if (messages == null) return;
+        for (ChatMessage chatMessage : messages) {
+            if (!stableIds.containsKey(chatMessage.id)) stableIds.put(chatMessage.id, getStableId(chatMessage.id));
+        }
+    }
+
+    private int getViewType(ChatMessage chatMessage) {
+        return senderId.equals(chatMessage.senderId) ? VIEW_TYPE_SENT : VIEW_TYPE_RECEIVED;
+    }
+
+    /**
+     * Update the status of the sent messages from the receiver's watermarks, only the messages whose status changes are rebound
+     * @param deliveredAt sent messages up to this date reached the receiver's device, null if none did
+     * @param readAt sent messages up to this date were read by the receiver, null if none was
+     */
+    public void setReceipts(@Nullable Date deliveredAt, @Nullable Date readAt) {
+        Date previousDeliveredAt = this.deliveredAt;
+        Date previousReadAt = this.readAt;
+        this.deliveredAt = deliveredAt;
+        this.readAt = readAt;
+        List<ChatMessage> messages = getCurrentList();
+        for (int position = messages.size() - 1; position >= 0; position--) {
+            ChatMessage chatMessage = messages.get(position);
+            if (getViewType(chatMessage) != VIEW_TYPE_SENT) continue;
+            int previousStatus = getStatus(chatMessage, previousDeliveredAt, previousReadAt);
+            // watermarks only move forward, every older message was read already
+            if (previousStatus == Constants.STATUS_READ) break;
+            if (getStatus(chatMessage, deliveredAt, readAt) != previousStatus) notifyItemChanged(position, PAYLOAD_STATUS);
+        }
+    }
+
+    private static int getStatus(ChatMessage chatMessage, @Nullable Date deliveredAt, @Nullable Date readAt) {
+        Date date = chatMessage.dateObject;
+        if (date == null) return Constants.STATUS_SENT;
+        if (readAt != null && !date.after(readAt)) return Constants.STATUS_READ;
+        // a read message was delivered too, even if the delivery was never reported
+        if (deliveredAt != null && !date.after(deliveredAt)) return Constants.STATUS_DELIVERED;
+        return Constants.STATUS_SENT;
+    }
+
+    /**
+     * Only the last of consecutive received messages (from the same sender in a group) shows the avatar. A message arriving below it hides its avatar
+     * although its content is unchanged, so the diff doesn't rebind it: it is rebound here with an avatar only payload
+     */
+    @Override
+    public void onCurrentListChanged(@NonNull List<ChatMessage> previousList, @NonNull List<ChatMessage> currentList) {
+        int lastPosition = currentList.size() - 1;
+        for (int position = 0; position <= lastPosition; position++) {
+            ChatMessage chatMessage = currentList.get(position);
+            boolean showsAvatar = getViewType(chatMessage) == VIEW_TYPE_RECEIVED
+                    && (position == lastPosition || getViewType(currentList.get(position + 1)) != VIEW_TYPE_RECEIVED
+                    || !ObjectsCompat.equals(chatMessage.senderId, currentList.get(position + 1).senderId));
+            boolean changed = showsAvatar
+                    ? avatarMessageIds.add(chatMessage.id)
+                    : avatarMessageIds.remove(chatMessage.id);
+            if (changed) notifyItemChanged(position, PAYLOAD_AVATAR);
+        }
     }
 
     /**
@@ -95,13 +260,27 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
             setReceivedMessageView((ReceivedMessageViewHolder) holder, position);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+        } else if (holder instanceof ReceivedMessageViewHolder) {
+            ChatMessage chatMessage = getItem(position);
+            ((ReceivedMessageViewHolder) holder).setAvatar(avatarMessageIds.contains(chatMessage.id), getSender(chatMessage));
+        } else {
+            ChatMessage chatMessage = getItem(position);
+            ((SentMessageViewHolder) holder).setStatus(chatMessage, getDateTime(chatMessage), getStatus(chatMessage, deliveredAt, readAt));
+        }
+    }
+
     /**
      * set View to sent message content
      * @param holder viewholder slot in recycler view (intially empty)
      * @param position position in the Recycler View
      */
     private void setSentMessageView(SentMessageViewHolder holder, int position) {
-        holder.setData(chatMessages.get(position));
+        ChatMessage chatMessage = getItem(position);
+        holder.setData(chatMessage, getDateTime(chatMessage), getStatus(chatMessage, deliveredAt, readAt));
     }
 
     /**
@@ -110,18 +289,50 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
      * @param position position in the recycler view
      */
     private void setReceivedMessageView(ReceivedMessageViewHolder holder, int position) {
-        holder.setData(chatMessages.get(position), receiverProfileImage);
+        ChatMessage chatMessage = getItem(position);
+        holder.setData(chatMessage, getDateTime(chatMessage), getSender(chatMessage),
+                avatarMessageIds.contains(chatMessage.id), receiverUser == null);
     }
 
     @Override
-    public int getItemCount() {
-        return chatMessages.size();
+    public int getItemViewType(int position) {
+        return getViewType(getItem(position));
     }
 
     @Override
-    public int getItemViewType(int position) {
-        if (chatMessages.get(position).senderId.equals(senderId)) return VIEW_TYPE_SENT;
-        return VIEW_TYPE_RECEIVED;
+    public long getItemId(int position) {
+        Long stableId = stableIds.get(getItem(position).id);
+        return stableId != null ? stableId : RecyclerView.NO_ID;
+    }
+
+    /**
+     * @param id document id of a message
+     * @return 64-bit FNV-1a hash of the id, ids of one conversation practically never collide
+     */
+    private static long getStableId(String id) {
+        if (id == null) return RecyclerView.NO_ID;
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Format the message date the first time it is shown, so messages that are never scrolled to are never formatted
+     * @param chatMessage message being bound
+     * @return readable date time of the message, null while it is pending (its time changes once the server stores it)
+     */
+    @Nullable
+    private String getDateTime(ChatMessage chatMessage) {
+        if (chatMessage.pending) return null;
+        String dateTime = dateTimes.get(chatMessage.id);
+        if (dateTime == null) {
+            dateTime = DateFormatUtils.getReadableDateTime(chatMessage.dateObject);
+            dateTimes.put(chatMessage.id, dateTime);
+        }
+        return dateTime;
     }
 
     static class SentMessageViewHolder extends RecyclerView.ViewHolder {
@@ -133,25 +344,60 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
             binding = itemContainterSentMessageBinding;
         }
 
-        void setData(ChatMessage chatMessage) {
+        void setData(ChatMessage chatMessage, String dateTime, int status) {
             binding.textMessage.setText(chatMessage.message);
-            binding.textDateTime.setText(chatMessage.dateTime);
+            setStatus(chatMessage, dateTime, status);
+        }
+
+        void setStatus(ChatMessage chatMessage, String dateTime, int status) {
+            if (chatMessage.pending) {
+                binding.textDateTime.setText(R.string.status_sending);
+            } else {
+                binding.textDateTime.setText(binding.getRoot().getContext().getString(
+                        R.string.format_message_status, dateTime, getStatusLabel(status)
+                ));
+            }
+            binding.getRoot().setAlpha(chatMessage.pending ? 0.6f : 1f);
+        }
+
+        private String getStatusLabel(int status) {
+            switch (status) {
+                case Constants.STATUS_READ:
+                    return binding.getRoot().getContext().getString(R.string.status_read);
+                case Constants.STATUS_DELIVERED:
+                    return binding.getRoot().getContext().getString(R.string.status_delivered);
+                default:
+                    return binding.getRoot().getContext().getString(R.string.status_sent);
+            }
         }
 
     }
 
     static class ReceivedMessageViewHolder extends RecyclerView.ViewHolder {
         private final ItemContainerReceivedMessageBinding binding;
+        // a recycled row keeps the avatar it already holds when the sender is the same (always in a conversation of two)
+        private User avatarUser;
 
         ReceivedMessageViewHolder(ItemContainerReceivedMessageBinding itemContainerReceivedMessageBinding) {
             super(itemContainerReceivedMessageBinding.getRoot());
             binding = itemContainerReceivedMessageBinding;
         }
 
-        void setData(ChatMessage chatMessage, Bitmap receiverProfileImage) {
+        void setData(ChatMessage chatMessage, String dateTime, User sender, boolean showsAvatar, boolean showsSenderName) {
             binding.textMessage.setText(chatMessage.message);
-            binding.textDateTime.setText(chatMessage.dateTime);
-            binding.imageProfile.setImageBitmap(receiverProfileImage);
+            binding.textDateTime.setText(showsSenderName
+                    ? binding.getRoot().getContext().getString(R.string.format_sender_date_time, sender.name, dateTime)
+                    : dateTime);
+            setAvatar(showsAvatar, sender);
+        }
+
+        void setAvatar(boolean showsAvatar, User sender) {
+            // invisible rather than gone, so the bubbles of a run stay aligned
+            binding.imageProfile.setVisibility(showsAvatar ? View.VISIBLE : View.INVISIBLE);
+            if (showsAvatar && sender != avatarUser) {
+                AvatarCache.getInstance().load(binding.imageProfile, sender.id, sender.image, sender.imageHash);
+                avatarUser = sender;
+            }
         }
     }
 }
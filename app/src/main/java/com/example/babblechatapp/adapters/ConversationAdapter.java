@@ -0,0 +1,107 @@
+package com.example.babblechatapp.adapters;
+
+import android.graphics.Typeface;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.ObjectsCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.babblechatapp.databinding.ItemContainerConversationBinding;
+import com.example.babblechatapp.listeners.ConversationListener;
+import com.example.babblechatapp.models.Conversation;
+import com.example.babblechatapp.utilities.AvatarCache;
+import com.example.babblechatapp.utilities.DateFormatUtils;
+
+public class ConversationAdapter extends ListAdapter<Conversation, ConversationAdapter.ConversationViewHolder> {
+
+    private final String userId;
+    private final ConversationListener conversationListener;
+
+    /**
+     * Conversations are identified by the peer's id, a new message only rebinds the row it changed
+     */
+    private static final DiffUtil.ItemCallback<Conversation> DIFF_CALLBACK = new DiffUtil.ItemCallback<Conversation>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+            return ObjectsCompat.equals(oldItem.id, newItem.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+            return ObjectsCompat.equals(oldItem.lastMessage, newItem.lastMessage)
+                    && ObjectsCompat.equals(oldItem.lastSenderId, newItem.lastSenderId)
+                    && ObjectsCompat.equals(oldItem.dateObject, newItem.dateObject)
+                    && ObjectsCompat.equals(oldItem.name, newItem.name)
+                    && ObjectsCompat.equals(oldItem.imageHash, newItem.imageHash)
+                    && oldItem.unreadCount == newItem.unreadCount;
+        }
+    };
+
+    /**
+     * @param userId id of the signed-in user, whose own last messages are prefixed with "You: "
+     * @param conversationListener called when a conversation is clicked
+     */
+    public ConversationAdapter(String userId, ConversationListener conversationListener) {
+        super(DIFF_CALLBACK);
+        this.userId = userId;
+        this.conversationListener = conversationListener;
+    }
+
+    @NonNull
+    @Override
+    public ConversationViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ConversationViewHolder(
+                ItemContainerConversationBinding.inflate(
+                        LayoutInflater.from(parent.getContext()),
+                        parent,
+                        false
+                )
+        );
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ConversationViewHolder holder, int position) {
+        holder.setData(getItem(position));
+    }
+
+    /**
+     * Format the date the first time the conversation is shown
+     * @param conversation conversation being bound
+     * @return readable date time of the last message
+     */
+    private static String getDateTime(Conversation conversation) {
+        if (conversation.dateTime == null) {
+            conversation.dateTime = DateFormatUtils.getReadableDateTime(conversation.dateObject);
+        }
+        return conversation.dateTime;
+    }
+
+    class ConversationViewHolder extends RecyclerView.ViewHolder {
+
+        private final ItemContainerConversationBinding binding;
+
+        ConversationViewHolder(ItemContainerConversationBinding itemContainerConversationBinding) {
+            super(itemContainerConversationBinding.getRoot());
+            binding = itemContainerConversationBinding;
+        }
+
+        void setData(Conversation conversation) {
+            binding.textName.setText(conversation.name);
+            binding.textLastMessage.setText(userId.equals(conversation.lastSenderId)
+                    ? "You: " + conversation.lastMessage
+                    : conversation.lastMessage);
+            binding.textDateTime.setText(getDateTime(conversation));
+            boolean hasUnreadMessages = conversation.unreadCount > 0;
+            binding.textLastMessage.setTypeface(null, hasUnreadMessages ? Typeface.BOLD : Typeface.NORMAL);
+            binding.textUnreadCount.setVisibility(hasUnreadMessages ? View.VISIBLE : View.GONE);
+            binding.textUnreadCount.setText(conversation.unreadCount > 99 ? "99+" : String.valueOf(conversation.unreadCount));
+            AvatarCache.getInstance().load(binding.imageProfile, conversation.id, null, conversation.imageHash);
+            binding.getRoot().setOnClickListener(v -> conversationListener.onConversationClicked(conversation));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.babblechatapp.adapters;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.ObjectsCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.babblechatapp.databinding.ItemContainerSearchResultBinding;
+import com.example.babblechatapp.listeners.MessageSearchListener;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.MessageSearchResult;
+import com.example.babblechatapp.utilities.AvatarCache;
+import com.example.babblechatapp.utilities.DateFormatUtils;
+
+public class MessageSearchAdapter extends ListAdapter<MessageSearchResult, MessageSearchAdapter.SearchResultViewHolder> {
+
+    private final String userId;
+    private final MessageSearchListener messageSearchListener;
+
+    /**
+     * Results are identified by the message id, so narrowing a query only removes the rows that stopped matching
+     */
+    private static final DiffUtil.ItemCallback<MessageSearchResult> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageSearchResult>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageSearchResult oldItem, @NonNull MessageSearchResult newItem) {
+            return ObjectsCompat.equals(oldItem.chatMessage.id, newItem.chatMessage.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageSearchResult oldItem, @NonNull MessageSearchResult newItem) {
+            return ObjectsCompat.equals(oldItem.chatMessage.message, newItem.chatMessage.message)
+                    && ObjectsCompat.equals(oldItem.peer.name, newItem.peer.name)
+                    && ObjectsCompat.equals(oldItem.peer.imageHash, newItem.peer.imageHash);
+        }
+    };
+
+    /**
+     * @param userId id of the signed-in user, whose own messages are prefixed with "You: "
+     * @param messageSearchListener called when a result is clicked
+     */
+    public MessageSearchAdapter(String userId, MessageSearchListener messageSearchListener) {
+        super(DIFF_CALLBACK);
+        this.userId = userId;
+        this.messageSearchListener = messageSearchListener;
+    }
+
+    @NonNull
+    @Override
+    public SearchResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new SearchResultViewHolder(
+                ItemContainerSearchResultBinding.inflate(
+                        LayoutInflater.from(parent.getContext()),
+                        parent,
+                        false
+                )
+        );
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
+        holder.setData(getItem(position));
+    }
+
+    class SearchResultViewHolder extends RecyclerView.ViewHolder {
+
+        private final ItemContainerSearchResultBinding binding;
+
+        SearchResultViewHolder(ItemContainerSearchResultBinding itemContainerSearchResultBinding) {
+            super(itemContainerSearchResultBinding.getRoot());
+            binding = itemContainerSearchResultBinding;
+        }
+
+        void setData(MessageSearchResult messageSearchResult) {
+            ChatMessage chatMessage = messageSearchResult.chatMessage;
+            binding.textName.setText(messageSearchResult.peer.name);
+            binding.textMessage.setText(userId.equals(chatMessage.senderId)
+                    ? "You: " + chatMessage.message
+                    : chatMessage.message);
+            if (chatMessage.dateTime == null) {
+                chatMessage.dateTime = DateFormatUtils.getReadableDateTime(chatMessage.dateObject);
+            }
+            binding.textDateTime.setText(chatMessage.dateTime);
+            AvatarCache.getInstance().load(binding.imageProfile, messageSearchResult.peer.id,
+                    messageSearchResult.peer.image, messageSearchResult.peer.imageHash);
+            binding.getRoot().setOnClickListener(v -> messageSearchListener.onSearchResultClicked(messageSearchResult));
+        }
+    }
+}
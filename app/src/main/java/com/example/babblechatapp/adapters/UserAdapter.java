@@ -1,30 +1,40 @@
 package com.example.babblechatapp.adapters;
 
-import android.content.ClipData;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Base64;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.babblechatapp.R;
 import com.example.babblechatapp.databinding.ItemContainerUserBinding;
 import com.example.babblechatapp.listeners.UserListener;
 import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.AvatarCache;
 
 import java.util.List;
+import java.util.Set;
 
 
 public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder> {
 
     private final List<User> users;
     private final UserListener userListener;
+    // ids of the users picked so far while choosing group members, null when a click opens a chat
+    private final Set<String> selectedUserIds;
 
     public UserAdapter(List<User> users, UserListener userListener) {
+        this(users, userListener, null);
+    }
+
+    /**
+     * @param selectedUserIds picked users, highlighted, updated by the listener (which notifies the changed row)
+     */
+    public UserAdapter(List<User> users, UserListener userListener, @Nullable Set<String> selectedUserIds) {
         this.users = users;
         this.userListener = userListener;
+        this.selectedUserIds = selectedUserIds;
     }
 
     @NonNull
@@ -60,13 +70,10 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
         void setUserData(User user) {
             binding.textName.setText(user.name);
             binding.textEmail.setText(user.email);
-            binding.imageProfile.setImageBitmap(getUserImage(user.image));
+            AvatarCache.getInstance().load(binding.imageProfile, user.id, user.image, user.imageHash);
+            boolean isSelected = selectedUserIds != null && selectedUserIds.contains(user.id);
+            binding.getRoot().setBackgroundResource(isSelected ? R.drawable.background_selected_user : 0);
             binding.getRoot().setOnClickListener(v -> userListener.onUserClicked(user));
         }
     }
-
-    private Bitmap getUserImage(String encodeImage) {
-        byte[] bytes = Base64.decode(encodeImage, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(bytes,0, bytes.length);
-    }
 }
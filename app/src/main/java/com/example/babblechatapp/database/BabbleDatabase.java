@@ -0,0 +1,127 @@
+package com.example.babblechatapp.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * On-device SQLite cache of Firestore data.
+ * Every access goes through the DAOs of this package and must run off the main thread
+ */
+public class BabbleDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "babble.db";
+    private static final int DATABASE_VERSION = 3;
+
+    static final String TABLE_USERS = "users";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_EMAIL = "email";
+    static final String COLUMN_IMAGE = "image";
+    static final String COLUMN_IMAGE_HASH = "image_hash";
+    static final String COLUMN_TOKEN = "token";
+    static final String COLUMN_UPDATED_AT = "updated_at";
+
+    static final String TABLE_MESSAGES = "messages";
+    static final String COLUMN_CONVERSATION_ID = "conversation_id";
+    static final String COLUMN_SENDER_ID = "sender_id";
+    static final String COLUMN_RECEIVER_ID = "receiver_id";
+    static final String COLUMN_MESSAGE = "message";
+    static final String COLUMN_TIMESTAMP = "timestamp";
+
+    // full-text index of the messages, its docid is the rowid of the message
+    static final String TABLE_MESSAGES_FTS = "messages_fts";
+    static final String COLUMN_DOCID = "docid";
+    // message text as folded by TextNormalizer
+    static final String COLUMN_BODY = "body";
+
+    // sync cursors (i.e. the last update time seen), kept next to the data they describe
+    private static final String TABLE_SYNC_STATE = "sync_state";
+    private static final String COLUMN_KEY = "key";
+    private static final String COLUMN_VALUE = "value";
+
+    private static BabbleDatabase instance;
+
+    private BabbleDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static synchronized BabbleDatabase getInstance(Context context) {
+        if (instance == null) instance = new BabbleDatabase(context.getApplicationContext());
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_USERS + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_NAME + " TEXT, "
+                + COLUMN_EMAIL + " TEXT, "
+                + COLUMN_IMAGE + " TEXT, "
+                + COLUMN_IMAGE_HASH + " TEXT, "
+                + COLUMN_TOKEN + " TEXT, "
+                + COLUMN_UPDATED_AT + " INTEGER)");
+        // the directory is paged on (name, id), the same order as the Firestore query
+        db.execSQL("CREATE INDEX index_users_name_id ON " + TABLE_USERS + " (" + COLUMN_NAME + ", " + COLUMN_ID + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_VALUE + " INTEGER)");
+        createMessagesTable(db);
+        createMessagesFtsTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) createMessagesTable(db);
+        if (oldVersion < 3) {
+            createMessagesFtsTable(db);
+            MessageDao.indexAll(db);
+        }
+    }
+
+    private void createMessagesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_CONVERSATION_ID + " TEXT NOT NULL, "
+                + COLUMN_SENDER_ID + " TEXT, "
+                + COLUMN_RECEIVER_ID + " TEXT, "
+                + COLUMN_MESSAGE + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL)");
+        // every read is a range of one conversation ordered by time
+        db.execSQL("CREATE INDEX index_messages_conversation_timestamp ON " + TABLE_MESSAGES
+                + " (" + COLUMN_CONVERSATION_ID + ", " + COLUMN_TIMESTAMP + ")");
+    }
+
+    /**
+     * FTS4 with the default tokenizer, over text folded to lowercase without accents before it is indexed:
+     * the unicode61 tokenizer that would fold accents itself isn't built into the SQLite of every device
+     */
+    private void createMessagesFtsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_FTS + " USING fts4(" + COLUMN_BODY + ")");
+    }
+
+    @WorkerThread
+    public long getSyncState(String key, long defaultValue) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SYNC_STATE, new String[]{COLUMN_VALUE},
+                COLUMN_KEY + " = ?", new String[]{key}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : defaultValue;
+        }
+    }
+
+    @WorkerThread
+    public void deleteSyncStates(String keyPrefix) {
+        getWritableDatabase().delete(TABLE_SYNC_STATE, COLUMN_KEY + " LIKE ?", new String[]{keyPrefix + "%"});
+    }
+
+    @WorkerThread
+    public void putSyncState(String key, long value) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_KEY, key);
+        values.put(COLUMN_VALUE, value);
+        getWritableDatabase().insertWithOnConflict(TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.babblechatapp.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.utilities.TextNormalizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+public class MessageDao {
+
+    // BM25 parameters, the usual values: term frequency saturation and length normalization
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+
+    private final BabbleDatabase database;
+
+    public MessageDao(BabbleDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Read the newest messages of a conversation stored before a given time
+     * @param conversationId id of the conversation
+     * @param before only messages strictly older than this are returned, null for the newest messages
+     * @param limit maximum number of messages returned
+     * @return the messages, oldest first
+     */
+    @WorkerThread
+    public List<ChatMessage> getMessagesBefore(String conversationId, @Nullable Date before, int limit) {
+        String selection = BabbleDatabase.COLUMN_CONVERSATION_ID + " = ?";
+        String[] selectionArgs = {conversationId};
+        if (before != null) {
+            selection += " AND " + BabbleDatabase.COLUMN_TIMESTAMP + " < ?";
+            selectionArgs = new String[]{conversationId, String.valueOf(before.getTime())};
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(BabbleDatabase.TABLE_MESSAGES, null,
+                selection, selectionArgs, null, null,
+                BabbleDatabase.COLUMN_TIMESTAMP + " DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                messages.add(getChatMessage(cursor));
+            }
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Read the oldest messages of a conversation stored after a given time
+     * @param conversationId id of the conversation
+     * @param after only messages strictly newer than this are returned
+     * @param limit maximum number of messages returned
+     * @return the messages, oldest first
+     */
+    @WorkerThread
+    public List<ChatMessage> getMessagesAfter(String conversationId, Date after, int limit) {
+        List<ChatMessage> messages = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(BabbleDatabase.TABLE_MESSAGES, null,
+                BabbleDatabase.COLUMN_CONVERSATION_ID + " = ? AND " + BabbleDatabase.COLUMN_TIMESTAMP + " > ?",
+                new String[]{conversationId, String.valueOf(after.getTime())}, null, null,
+                BabbleDatabase.COLUMN_TIMESTAMP, String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                messages.add(getChatMessage(cursor));
+            }
+        }
+        return messages;
+    }
+
+    @WorkerThread
+    @Nullable
+    public Date getNewestTimestamp(String conversationId) {
+        return getTimestamp("MAX", conversationId);
+    }
+
+    @WorkerThread
+    @Nullable
+    public Date getOldestTimestamp(String conversationId) {
+        return getTimestamp("MIN", conversationId);
+    }
+
+    @Nullable
+    private Date getTimestamp(String aggregate, String conversationId) {
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(
+                "SELECT " + aggregate + "(" + BabbleDatabase.COLUMN_TIMESTAMP + ") FROM " + BabbleDatabase.TABLE_MESSAGES
+                        + " WHERE " + BabbleDatabase.COLUMN_CONVERSATION_ID + " = ?",
+                new String[]{conversationId})) {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) return null;
+            return new Date(cursor.getLong(0));
+        }
+    }
+
+    /**
+     * Search every stored message, ranked by BM25 computed from the matchinfo of the full-text index
+     * @param terms normalized words (see {@link TextNormalizer#normalize(String)}) made of letters and digits only,
+     *              a message matches when it holds a word starting with each of them
+     * @param limit maximum number of messages returned
+     * @return the matching messages, best match first
+     */
+    @WorkerThread
+    public List<ChatMessage> search(List<String> terms, int limit) {
+        List<ChatMessage> messages = new ArrayList<>();
+        if (terms.isEmpty()) return messages;
+        StringBuilder matchQuery = new StringBuilder();
+        for (String term : terms) {
+            if (matchQuery.length() > 0) matchQuery.append(' ');
+            matchQuery.append(term).append('*');
+        }
+        // the best matches so far, the worst of them first
+        PriorityQueue<double[]> bestMatches = new PriorityQueue<>(limit + 1, (first, second) -> Double.compare(first[1], second[1]));
+        SQLiteDatabase db = database.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT " + BabbleDatabase.COLUMN_DOCID + ", matchinfo(" + BabbleDatabase.TABLE_MESSAGES_FTS
+                        + ", 'pcnalx') FROM " + BabbleDatabase.TABLE_MESSAGES_FTS + " WHERE " + BabbleDatabase.TABLE_MESSAGES_FTS + " MATCH ?",
+                new String[]{matchQuery.toString()})) {
+            while (cursor.moveToNext()) {
+                bestMatches.add(new double[]{cursor.getLong(0), getBm25(cursor.getBlob(1))});
+                if (bestMatches.size() > limit) bestMatches.poll();
+            }
+        }
+        if (bestMatches.isEmpty()) return messages;
+        List<double[]> ranking = new ArrayList<>(bestMatches);
+        Collections.sort(ranking, (first, second) -> Double.compare(second[1], first[1]));
+        StringBuilder rowIds = new StringBuilder();
+        for (double[] match : ranking) {
+            if (rowIds.length() > 0) rowIds.append(", ");
+            rowIds.append((long) match[0]);
+        }
+        Map<Long, ChatMessage> messagesByRowId = new HashMap<>();
+        try (Cursor cursor = db.rawQuery("SELECT rowid, * FROM " + BabbleDatabase.TABLE_MESSAGES
+                + " WHERE rowid IN (" + rowIds + ")", null)) {
+            while (cursor.moveToNext()) {
+                messagesByRowId.put(cursor.getLong(0), getChatMessage(cursor));
+            }
+        }
+        for (double[] match : ranking) {
+            ChatMessage chatMessage = messagesByRowId.get((long) match[0]);
+            if (chatMessage != null) messages.add(chatMessage);
+        }
+        return messages;
+    }
+
+    /**
+     * BM25 of one message for the whole query, from the matchinfo 'pcnalx' of the message: phrase and column counts,
+     * number of messages, average and message length in tokens, then for every phrase the hits in this message,
+     * the hits in all messages and the number of messages with a hit
+     */
+    private static double getBm25(byte[] matchinfo) {
+        IntBuffer values = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = values.get(0);
+        int columnCount = values.get(1);
+        int messageCount = values.get(2);
+        double score = 0;
+        for (int column = 0; column < columnCount; column++) {
+            double averageLength = Math.max(1, values.get(3 + column));
+            double length = values.get(3 + columnCount + column);
+            for (int phrase = 0; phrase < phraseCount; phrase++) {
+                int hits = 3 + 2 * columnCount + 3 * (phrase * columnCount + column);
+                double termFrequency = values.get(hits);
+                int matchingMessages = values.get(hits + 2);
+                if (termFrequency == 0) continue;
+                // never negative, unlike the original idf for terms found in most messages
+                double inverseDocumentFrequency = Math.log(1 + (messageCount - matchingMessages + 0.5) / (matchingMessages + 0.5));
+                score += inverseDocumentFrequency * termFrequency * (BM25_K1 + 1)
+                        / (termFrequency + BM25_K1 * (1 - BM25_B + BM25_B * length / averageLength));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Insert or update messages in one transaction, messages without a timestamp are skipped.
+     * The full-text index follows in the same transaction, only for new messages and messages whose text changed
+     * @param messages messages fetched from Firestore
+     */
+    @WorkerThread
+    public void upsert(List<ChatMessage> messages) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ChatMessage chatMessage : messages) {
+                if (chatMessage.dateObject == null || chatMessage.conversationId == null) continue;
+                ContentValues values = new ContentValues();
+                values.put(BabbleDatabase.COLUMN_ID, chatMessage.id);
+                values.put(BabbleDatabase.COLUMN_CONVERSATION_ID, chatMessage.conversationId);
+                values.put(BabbleDatabase.COLUMN_SENDER_ID, chatMessage.senderId);
+                values.put(BabbleDatabase.COLUMN_RECEIVER_ID, chatMessage.receiverId);
+                values.put(BabbleDatabase.COLUMN_MESSAGE, chatMessage.message);
+                values.put(BabbleDatabase.COLUMN_TIMESTAMP, chatMessage.dateObject.getTime());
+                long rowId = -1;
+                String storedMessage = null;
+                try (Cursor cursor = db.query(BabbleDatabase.TABLE_MESSAGES, new String[]{"rowid", BabbleDatabase.COLUMN_MESSAGE},
+                        BabbleDatabase.COLUMN_ID + " = ?", new String[]{chatMessage.id}, null, null, null)) {
+                    if (cursor.moveToFirst()) {
+                        rowId = cursor.getLong(0);
+                        storedMessage = cursor.getString(1);
+                    }
+                }
+                if (rowId == -1) {
+                    rowId = db.insert(BabbleDatabase.TABLE_MESSAGES, null, values);
+                    if (rowId != -1) index(db, rowId, chatMessage.message, false);
+                } else {
+                    // updated in place, a replace would give the message a new rowid and orphan its index entry
+                    db.update(BabbleDatabase.TABLE_MESSAGES, values, BabbleDatabase.COLUMN_ID + " = ?", new String[]{chatMessage.id});
+                    // messages are mostly stored again unchanged (listener echoes, overlapping pages)
+                    if (!TextUtils.equals(storedMessage, chatMessage.message)) index(db, rowId, chatMessage.message, true);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @WorkerThread
+    public void delete(String id) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(BabbleDatabase.TABLE_MESSAGES_FTS, BabbleDatabase.COLUMN_DOCID + " IN (SELECT rowid FROM "
+                    + BabbleDatabase.TABLE_MESSAGES + " WHERE " + BabbleDatabase.COLUMN_ID + " = ?)", new String[]{id});
+            db.delete(BabbleDatabase.TABLE_MESSAGES, BabbleDatabase.COLUMN_ID + " = ?", new String[]{id});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @WorkerThread
+    public void deleteAll() {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(BabbleDatabase.TABLE_MESSAGES_FTS, null, null);
+            db.delete(BabbleDatabase.TABLE_MESSAGES, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Index the messages stored before the full-text index existed, called from the database upgrade
+     */
+    static void indexAll(SQLiteDatabase db) {
+        try (Cursor cursor = db.query(BabbleDatabase.TABLE_MESSAGES, new String[]{"rowid", BabbleDatabase.COLUMN_MESSAGE},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                index(db, cursor.getLong(0), cursor.getString(1), false);
+            }
+        }
+    }
+
+    /**
+     * @param rowId rowid of the message, stable as the messages table is only ever updated in place and never vacuumed
+     * @param isIndexed whether the message already has an index entry to replace
+     */
+    private static void index(SQLiteDatabase db, long rowId, String message, boolean isIndexed) {
+        ContentValues values = new ContentValues();
+        values.put(BabbleDatabase.COLUMN_BODY, TextNormalizer.normalize(message));
+        if (isIndexed) {
+            db.update(BabbleDatabase.TABLE_MESSAGES_FTS, values, BabbleDatabase.COLUMN_DOCID + " = ?", new String[]{String.valueOf(rowId)});
+        } else {
+            values.put(BabbleDatabase.COLUMN_DOCID, rowId);
+            db.insert(BabbleDatabase.TABLE_MESSAGES_FTS, null, values);
+        }
+    }
+
+    private ChatMessage getChatMessage(Cursor cursor) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_ID));
+        chatMessage.conversationId = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_CONVERSATION_ID));
+        chatMessage.senderId = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_SENDER_ID));
+        chatMessage.receiverId = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_RECEIVER_ID));
+        chatMessage.message = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_MESSAGE));
+        chatMessage.dateObject = new Date(cursor.getLong(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_TIMESTAMP)));
+        return chatMessage;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.babblechatapp.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.WorkerThread;
+
+import com.example.babblechatapp.models.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class UserDao {
+
+    private final BabbleDatabase database;
+
+    public UserDao(BabbleDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Read one page of the cached directory, ordered by (name, id)
+     * @param after last user of the previous page, null for the first page
+     * @param excludedUserId user left out of the page (the signed in user)
+     * @param limit maximum number of users returned
+     * @return the page, empty when the cache holds nothing after {@code after}
+     */
+    @WorkerThread
+    public List<User> getPage(User after, String excludedUserId, int limit) {
+        String selection = BabbleDatabase.COLUMN_ID + " != ?";
+        String[] selectionArgs = {excludedUserId};
+        if (after != null) {
+            selection += " AND (" + BabbleDatabase.COLUMN_NAME + " > ? OR ("
+                    + BabbleDatabase.COLUMN_NAME + " = ? AND " + BabbleDatabase.COLUMN_ID + " > ?))";
+            String afterName = after.name == null ? "" : after.name;
+            selectionArgs = new String[]{excludedUserId, afterName, afterName, after.id};
+        }
+        List<User> users = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(BabbleDatabase.TABLE_USERS, null,
+                selection, selectionArgs, null, null,
+                BabbleDatabase.COLUMN_NAME + ", " + BabbleDatabase.COLUMN_ID, String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                users.add(getUser(cursor));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Insert or replace users in one transaction
+     * @param users users fetched from Firestore
+     * @param updatedAt last update time of each user in milliseconds, 0 when unknown
+     */
+    @WorkerThread
+    public void upsert(List<User> users, List<Long> updatedAt) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                ContentValues values = new ContentValues();
+                values.put(BabbleDatabase.COLUMN_ID, user.id);
+                values.put(BabbleDatabase.COLUMN_NAME, user.name);
+                values.put(BabbleDatabase.COLUMN_EMAIL, user.email);
+                values.put(BabbleDatabase.COLUMN_IMAGE, user.image);
+                values.put(BabbleDatabase.COLUMN_IMAGE_HASH, user.imageHash);
+                values.put(BabbleDatabase.COLUMN_TOKEN, user.token);
+                values.put(BabbleDatabase.COLUMN_UPDATED_AT, updatedAt.get(i));
+                db.insertWithOnConflict(BabbleDatabase.TABLE_USERS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Read id, name and email of every cached user, what the search index is built from
+     */
+    @WorkerThread
+    public List<User> getSearchEntries() {
+        List<User> users = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(BabbleDatabase.TABLE_USERS,
+                new String[]{BabbleDatabase.COLUMN_ID, BabbleDatabase.COLUMN_NAME, BabbleDatabase.COLUMN_EMAIL},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                User user = new User();
+                user.id = cursor.getString(0);
+                user.name = cursor.getString(1);
+                user.email = cursor.getString(2);
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * @param ids ids of cached users
+     * @return the users in the order of {@code ids}, users missing from the cache are left out
+     */
+    @WorkerThread
+    public List<User> getUsers(List<String> ids) {
+        List<User> users = new ArrayList<>();
+        if (ids.isEmpty()) return users;
+        StringBuilder selection = new StringBuilder(BabbleDatabase.COLUMN_ID + " IN (?");
+        for (int i = 1; i < ids.size(); i++) {
+            selection.append(", ?");
+        }
+        selection.append(')');
+        Map<String, User> usersById = new HashMap<>();
+        try (Cursor cursor = database.getReadableDatabase().query(BabbleDatabase.TABLE_USERS, null,
+                selection.toString(), ids.toArray(new String[0]), null, null, null)) {
+            while (cursor.moveToNext()) {
+                User user = getUser(cursor);
+                usersById.put(user.id, user);
+            }
+        }
+        for (String id : ids) {
+            User user = usersById.get(id);
+            if (user != null) users.add(user);
+        }
+        return users;
+    }
+
+    private User getUser(Cursor cursor) {
+        User user = new User();
+        user.id = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_ID));
+        user.name = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_NAME));
+        user.email = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_EMAIL));
+        user.image = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_IMAGE));
+        user.imageHash = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_IMAGE_HASH));
+        user.token = cursor.getString(cursor.getColumnIndexOrThrow(BabbleDatabase.COLUMN_TOKEN));
+        return user;
+    }
+}
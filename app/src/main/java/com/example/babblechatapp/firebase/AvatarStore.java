@@ -0,0 +1,238 @@
+package com.example.babblechatapp.firebase;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.babblechatapp.utilities.AppExecutors;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * Content-addressed store of profile images in Firebase Storage.
+ * An image is stored once under the SHA-256 hash of its bytes, so the hash written in the user document
+ * is enough to fetch it and a downloaded image never has to be invalidated: it is kept on disk by hash
+ */
+public class AvatarStore {
+
+    private static final String AVATARS_PATH = "avatars/";
+    private static final String CACHE_DIRECTORY = "avatars";
+    private static final long MAX_AVATAR_BYTES = 1024 * 1024;
+    public static final int DISPLAY_WIDTH = 256;
+    public static final int THUMBNAIL_WIDTH = 48;
+
+    private static AvatarStore instance;
+
+    private final File cacheDirectory;
+
+    private AvatarStore(Context context) {
+        cacheDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+    }
+
+    public static synchronized AvatarStore getInstance(Context context) {
+        if (instance == null) instance = new AvatarStore(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Hash an encoded image and keep it in the disk cache, nothing is uploaded
+     * @param bytes encoded (JPEG) image
+     * @return task resolving to the hash the image is stored under
+     */
+    public Task<String> save(byte[] bytes) {
+        return Tasks.call(AppExecutors.background(), () -> {
+            String hash = getHash(bytes);
+            writeToDisk(hash, bytes);
+            return hash;
+        });
+    }
+
+    /**
+     * Upload an encoded image under its content hash, the user must be signed in.
+     * An image someone already stored (same bytes, so same hash) is left as it is
+     * @param bytes encoded (JPEG) image
+     * @return task resolving to the hash the image is stored under
+     */
+    public Task<String> upload(byte[] bytes) {
+        return save(bytes).continueWithTask(task -> {
+            if (!task.isSuccessful()) throw task.getException();
+            String hash = task.getResult();
+            return putIfAbsent(getReference(hash), bytes).continueWith(uploadTask -> {
+                if (!uploadTask.isSuccessful()) throw uploadTask.getException();
+                return hash;
+            });
+        });
+    }
+
+    /**
+     * Upload an image kept in the disk cache by {@link #save(byte[])}, e.g. after its upload failed.
+     * The disk is read on the calling thread
+     * @param hash content hash of the image
+     * @return task resolving to the hash, failing with a FileNotFoundException if the cache no longer holds the image
+     */
+    @WorkerThread
+    @NonNull
+    public Task<String> uploadCached(String hash) {
+        byte[] bytes = readFromDisk(hash);
+        if (bytes == null) return Tasks.forException(new FileNotFoundException(hash));
+        return putIfAbsent(getReference(hash), bytes).continueWith(uploadTask -> {
+            if (!uploadTask.isSuccessful()) throw uploadTask.getException();
+            return hash;
+        });
+    }
+
+    /**
+     * The rules only let an image be created, never overwritten: check for it first, and again if the upload is
+     * refused, in case another user stored the same image meanwhile
+     */
+    @NonNull
+    private Task<Void> putIfAbsent(StorageReference reference, byte[] bytes) {
+        return reference.getMetadata().continueWithTask(metadataTask -> {
+            if (metadataTask.isSuccessful()) return Tasks.forResult(null);
+            if (!isNotFound(metadataTask.getException())) throw metadataTask.getException();
+            StorageMetadata metadata = new StorageMetadata.Builder()
+                    .setContentType("image/jpeg")
+                    // the content of a hash never changes
+                    .setCacheControl("public, max-age=31536000, immutable")
+                    .build();
+            return reference.putBytes(bytes, metadata).continueWithTask(uploadTask -> {
+                if (uploadTask.isSuccessful()) return Tasks.forResult(null);
+                return reference.getMetadata().continueWith(existingTask -> {
+                    if (!existingTask.isSuccessful()) throw uploadTask.getException();
+                    return null;
+                });
+            });
+        });
+    }
+
+    /**
+     * Get the bytes of an image, from the disk cache when it has already been downloaded.
+     * The disk is read on the calling thread, the download holds no thread of the app while it runs
+     * @param hash content hash of the image
+     * @return task resolving to the encoded image, failing if it can't be fetched
+     */
+    @WorkerThread
+    @NonNull
+    public Task<byte[]> getBytes(String hash) {
+        byte[] bytes = readFromDisk(hash);
+        if (bytes != null) return Tasks.forResult(bytes);
+        return getReference(hash).getBytes(MAX_AVATAR_BYTES).continueWith(AppExecutors.background(), task -> {
+            if (!task.isSuccessful()) throw task.getException();
+            writeToDisk(hash, task.getResult());
+            return task.getResult();
+        });
+    }
+
+    /**
+     * Move an inline avatar written by older versions of the app into the store,
+     * leaving only its hash and a thumbnail in the user document
+     * @param documentReference user document
+     * @param encodedImage Base64 image currently held by the document
+     * @return task resolving to the fields written to the document
+     */
+    public Task<HashMap<String, Object>> migrateLegacyAvatar(DocumentReference documentReference, String encodedImage) {
+        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
+        Task<String> thumbnail = Tasks.call(AppExecutors.background(), () -> {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            return Base64.encodeToString(compress(bitmap, THUMBNAIL_WIDTH), Base64.DEFAULT);
+        });
+        return Tasks.whenAllSuccess(upload(bytes), thumbnail).continueWithTask(task -> {
+            HashMap<String, Object> updates = new HashMap<>();
+            updates.put(Constants.KEY_IMAGE_HASH, task.getResult().get(0));
+            updates.put(Constants.KEY_IMAGE, task.getResult().get(1));
+            updates.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
+            return documentReference.update(updates).continueWith(updateTask -> {
+                if (!updateTask.isSuccessful()) throw updateTask.getException();
+                return updates;
+            });
+        });
+    }
+
+    /**
+     * Scale an image down to the given width and encode it as JPEG
+     * @param bitmap source image
+     * @param width width of the encoded image, the aspect ratio is kept
+     * @return JPEG bytes
+     */
+    @NonNull
+    public static byte[] compress(Bitmap bitmap, int width) {
+        int height = Math.max(1, bitmap.getHeight() * width / bitmap.getWidth());
+        Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        scaledBitmap.compress(Bitmap.CompressFormat.JPEG, 70, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @NonNull
+    private StorageReference getReference(String hash) {
+        return FirebaseStorage.getInstance().getReference(AVATARS_PATH + hash + ".jpg");
+    }
+
+    private static boolean isNotFound(Exception exception) {
+        return exception instanceof StorageException
+                && ((StorageException) exception).getErrorCode() == StorageException.ERROR_OBJECT_NOT_FOUND;
+    }
+
+    @Nullable
+    private byte[] readFromDisk(String hash) {
+        File file = new File(cacheDirectory, hash);
+        if (!file.exists()) return null;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                byteArrayOutputStream.write(buffer, 0, read);
+            }
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeToDisk(String hash, byte[] bytes) {
+        if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) return;
+        File temporaryFile = new File(cacheDirectory, hash + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            outputStream.write(bytes);
+        } catch (IOException e) {
+            return;
+        }
+        // readers only ever see complete files
+        temporaryFile.renameTo(new File(cacheDirectory, hash));
+    }
+
+    @NonNull
+    private static String getHash(byte[] bytes) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        StringBuilder hash = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hash.append(String.format("%02x", b));
+        }
+        return hash.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.babblechatapp.firebase;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads a profile image whose upload failed, from the disk cache it was saved to, so the hash written in the
+ * user document doesn't point to a missing image.
+ * Runs through WorkManager once the device is online, and is retried with exponential backoff on failure
+ */
+public class AvatarUploadWorker extends Worker {
+
+    private static final String UNIQUE_WORK_PREFIX = "avatarUpload_";
+    private static final String KEY_IMAGE_HASH = "imageHash";
+    private static final long INITIAL_BACKOFF_SECONDS = 30;
+
+    public AvatarUploadWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Upload the image unless its upload is already pending
+     * @param imageHash hash of an image saved with {@link AvatarStore#save(byte[])}
+     */
+    public static void enqueue(Context context, String imageHash) {
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(AvatarUploadWorker.class)
+                .setInputData(new Data.Builder()
+                        .putString(KEY_IMAGE_HASH, imageHash)
+                        .build())
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, INITIAL_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_PREFIX + imageHash, ExistingWorkPolicy.KEEP, workRequest);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        // the rules only let signed-in users store images, the preferences may not be written yet right after sign up
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) return Result.success();
+        try {
+            Tasks.await(AvatarStore.getInstance(getApplicationContext())
+                    .uploadCached(getInputData().getString(KEY_IMAGE_HASH)));
+            return Result.success();
+        } catch (ExecutionException e) {
+            // the system cleared the cache, there is nothing left to upload
+            if (e.getCause() instanceof FileNotFoundException) return Result.failure();
+            return Result.retry();
+        } catch (Exception e) {
+            return Result.retry();
+        }
+    }
+}
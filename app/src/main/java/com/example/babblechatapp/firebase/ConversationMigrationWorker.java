@@ -0,0 +1,149 @@
+package com.example.babblechatapp.firebase;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.repositories.MessageRepository;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.ConversationUtils;
+import com.example.babblechatapp.utilities.PreferenceManager;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backfill of {@link Constants#KEY_CONVERSATION_ID} and {@link Constants#KEY_PARTICIPANTS} on {@code chat} documents
+ * written before messages carried them.
+ * Runs through WorkManager once per conversation and device, after the conversation is first shown, so opening it
+ * never waits for its history. The history is read a page at a time and each page is tagged in one batch.
+ * Tagged messages are stored on the device, the queries of the conversation couldn't find them before
+ */
+public class ConversationMigrationWorker extends Worker {
+
+    private static final String UNIQUE_WORK_PREFIX = "conversationMigration_";
+    private static final String KEY_USER_ID = "userId";
+    private static final String KEY_OTHER_USER_ID = "otherUserId";
+    // output: number of messages the run tagged
+    public static final String KEY_TAGGED_COUNT = "taggedCount";
+    // one batch per page, Firestore rejects batches with more than 500 writes
+    private static final int PAGE_SIZE = 500;
+    private static final long INITIAL_BACKOFF_SECONDS = 30;
+
+    public ConversationMigrationWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * @return whether this device has already tagged the legacy messages of the conversation
+     */
+    public static boolean isMigrated(PreferenceManager preferenceManager, String conversationId) {
+        return preferenceManager.getBoolean(Constants.KEY_MIGRATED_CONVERSATION_PREFIX + conversationId);
+    }
+
+    /**
+     * Tag the legacy messages between the two users, unless it is already pending
+     * @param userId id of the signed in user
+     * @param otherUserId id of the other participant
+     * @return the state of the backfill of the conversation
+     */
+    @NonNull
+    public static LiveData<List<WorkInfo>> enqueue(Context context, String userId, String otherUserId) {
+        String uniqueWorkName = UNIQUE_WORK_PREFIX + ConversationUtils.getConversationId(userId, otherUserId);
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(ConversationMigrationWorker.class)
+                .setInputData(new Data.Builder()
+                        .putString(KEY_USER_ID, userId)
+                        .putString(KEY_OTHER_USER_ID, otherUserId)
+                        .build())
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, INITIAL_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        WorkManager workManager = WorkManager.getInstance(context);
+        workManager.enqueueUniqueWork(uniqueWorkName, ExistingWorkPolicy.KEEP, workRequest);
+        return workManager.getWorkInfosForUniqueWorkLiveData(uniqueWorkName);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
+        if (!preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) return Result.success();
+        String userId = getInputData().getString(KEY_USER_ID);
+        String otherUserId = getInputData().getString(KEY_OTHER_USER_ID);
+        String conversationId = ConversationUtils.getConversationId(userId, otherUserId);
+        if (isMigrated(preferenceManager, conversationId)) return Result.success();
+        try {
+            List<ChatMessage> taggedMessages = new ArrayList<>();
+            tag(userId, otherUserId, conversationId, taggedMessages);
+            tag(otherUserId, userId, conversationId, taggedMessages);
+            new MessageRepository(getApplicationContext()).saveTagged(conversationId, taggedMessages);
+            // the user may have signed out meanwhile, which cleared the preferences
+            if (preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) {
+                preferenceManager.putBoolean(Constants.KEY_MIGRATED_CONVERSATION_PREFIX + conversationId, true);
+            }
+            return Result.success(new Data.Builder().putInt(KEY_TAGGED_COUNT, taggedMessages.size()).build());
+        } catch (Exception e) {
+            return Result.retry();
+        }
+    }
+
+    /**
+     * Tag the messages sent one way, page by page
+     * @param taggedMessages the messages tagged are added to it
+     */
+    @WorkerThread
+    private void tag(String senderId, String receiverId, String conversationId, List<ChatMessage> taggedMessages)
+            throws ExecutionException, InterruptedException {
+        FirebaseFirestore database = FirebaseFirestore.getInstance();
+        Query query = database.collection(Constants.KEY_COLLECTION_CHAT)
+                .whereEqualTo(Constants.KEY_SENDER_ID, senderId)
+                .whereEqualTo(Constants.KEY_RECEIVER_ID, receiverId)
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+        QuerySnapshot querySnapshot = Tasks.await(query.get());
+        while (true) {
+            WriteBatch batch = database.batch();
+            List<ChatMessage> pageMessages = new ArrayList<>();
+            for (DocumentSnapshot documentSnapshot : querySnapshot.getDocuments()) {
+                if (documentSnapshot.contains(Constants.KEY_CONVERSATION_ID)
+                        && documentSnapshot.contains(Constants.KEY_PARTICIPANTS)) continue;
+                batch.update(documentSnapshot.getReference(),
+                        Constants.KEY_CONVERSATION_ID, conversationId,
+                        Constants.KEY_PARTICIPANTS, Arrays.asList(senderId, receiverId));
+                ChatMessage chatMessage = MessageRepository.getChatMessage(documentSnapshot);
+                chatMessage.conversationId = conversationId;
+                pageMessages.add(chatMessage);
+            }
+            if (!pageMessages.isEmpty()) Tasks.await(batch.commit());
+            taggedMessages.addAll(pageMessages);
+            if (querySnapshot.size() < PAGE_SIZE) return;
+            DocumentSnapshot lastDocument = querySnapshot.getDocuments().get(querySnapshot.size() - 1);
+            querySnapshot = Tasks.await(query.startAfter(lastDocument).get());
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.babblechatapp.firebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.babblechatapp.listeners.InboxListener;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.repositories.MessageRepository;
+import com.example.babblechatapp.utilities.AppExecutors;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.PreferenceManager;
+import com.example.babblechatapp.utilities.SerialExecutor;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The one live listener on the messages of the signed-in user, shared by every screen: a single query on the
+ * participants of the messages, newer than a watermark, fanned out by conversation to the subscribers.
+ * It stays attached for a while after the last subscriber leaves, so moving from one conversation to another
+ * sets up no new listener.
+ * Received messages are stored on the device here. A conversation is first caught up from its newest stored
+ * message (one query, once per start of the stream), so its stored range stays contiguous.
+ * Clients released before the participants field don't write it, their messages never match the stream: while
+ * the stream runs, the conversations with subscribers are caught up again every {@link #CATCH_UP_INTERVAL_MS}
+ * instead, one query each that only reads what the device is missing
+ */
+public class InboxStream {
+
+    // the listener outlives its last subscriber this long
+    private static final long LINGER_MS = 30000;
+    // messages stamped by a sender whose clock is a little late are still received when the stream starts
+    private static final long WATERMARK_MARGIN_MS = 5 * 60 * 1000;
+    // the listener holds every message received since it started, past this many it starts again from the newest one
+    private static final int MAX_LISTENED_MESSAGES = 500;
+    // most stored messages handed to a new subscriber
+    private static final int MAX_REPLAYED_MESSAGES = 1000;
+    // messages without participants reach an open conversation at most this late
+    private static final long CATCH_UP_INTERVAL_MS = 60000;
+
+    private static InboxStream instance;
+
+    private final FirebaseFirestore database;
+    private final PreferenceManager preferenceManager;
+    private final MessageRepository messageRepository;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable stop = this::stop;
+    private final Runnable catchUp = this::catchUpSubscribedConversations;
+    // decodes and stores snapshots in arrival order, off the main thread
+    private final Executor executor = new SerialExecutor(AppExecutors.background());
+    // subscriptions by conversation id, guarded by itself
+    private final Map<String, List<Subscription>> subscriptions = new HashMap<>();
+    // main thread only
+    private ListenerRegistration registration;
+    // only touched from executor: conversations whose stored range reaches the messages received live
+    private final Set<String> syncedConversationIds = new HashSet<>();
+    // only touched from executor
+    private Date newestReceived;
+
+    private InboxStream(Context context) {
+        database = FirebaseFirestore.getInstance();
+        preferenceManager = new PreferenceManager(context);
+        messageRepository = new MessageRepository(context);
+    }
+
+    public static synchronized InboxStream getInstance(Context context) {
+        if (instance == null) instance = new InboxStream(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Follow one conversation. The stored messages after {@code after} are handed over first
+     * (after the conversation is caught up), then every change as it is received
+     * @param conversationId id of the conversation
+     * @param after newest message the subscriber already has, null if it has none
+     * @param executor executor the listener is called on
+     * @param inboxListener called with the changes of the conversation
+     * @return registration ending the subscription
+     */
+    @MainThread
+    @NonNull
+    public ListenerRegistration subscribe(String conversationId, @Nullable Date after, Executor executor, InboxListener inboxListener) {
+        Subscription subscription = new Subscription(executor, inboxListener);
+        synchronized (subscriptions) {
+            List<Subscription> conversationSubscriptions = subscriptions.get(conversationId);
+            if (conversationSubscriptions == null) {
+                conversationSubscriptions = new ArrayList<>();
+                subscriptions.put(conversationId, conversationSubscriptions);
+            }
+            conversationSubscriptions.add(subscription);
+        }
+        handler.removeCallbacks(stop);
+        start();
+        this.executor.execute(() -> {
+            List<ChatMessage> replayedMessages = new ArrayList<>();
+            List<ChatMessage> caughtUpMessages = syncConversation(conversationId);
+            if (caughtUpMessages != null) replayedMessages.addAll(caughtUpMessages);
+            // what the catch up filled in may be older than the subscriber's newest message (a gap left by a push)
+            replayedMessages.addAll(after == null
+                    ? messageRepository.getLatestMessages(conversationId, MAX_REPLAYED_MESSAGES)
+                    : messageRepository.getMessagesAfter(conversationId, after, MAX_REPLAYED_MESSAGES));
+            subscription.deliver(replayedMessages, Collections.emptyList());
+        });
+        return () -> unsubscribe(conversationId, subscription);
+    }
+
+    /**
+     * @return whether a screen currently follows the conversation (i.e. it is open), can be called from any thread
+     */
+    public boolean hasSubscribers(String conversationId) {
+        synchronized (subscriptions) {
+            return subscriptions.containsKey(conversationId);
+        }
+    }
+
+    /**
+     * Stop listening right away (i.e. on sign out), subscribers are dropped
+     */
+    @MainThread
+    public void close() {
+        synchronized (subscriptions) {
+            for (List<Subscription> conversationSubscriptions : subscriptions.values()) {
+                for (Subscription subscription : conversationSubscriptions) {
+                    subscription.isActive = false;
+                }
+            }
+            subscriptions.clear();
+        }
+        handler.removeCallbacks(stop);
+        stop();
+    }
+
+    @MainThread
+    private void unsubscribe(String conversationId, Subscription subscription) {
+        subscription.isActive = false;
+        synchronized (subscriptions) {
+            List<Subscription> conversationSubscriptions = subscriptions.get(conversationId);
+            if (conversationSubscriptions == null || !conversationSubscriptions.remove(subscription)) return;
+            if (conversationSubscriptions.isEmpty()) subscriptions.remove(conversationId);
+            if (!subscriptions.isEmpty()) return;
+        }
+        handler.postDelayed(stop, LINGER_MS);
+    }
+
+    @MainThread
+    private void start() {
+        if (registration != null) return;
+        listen(new Date(System.currentTimeMillis() - WATERMARK_MARGIN_MS));
+        handler.postDelayed(catchUp, CATCH_UP_INTERVAL_MS);
+    }
+
+    /**
+     * Fetch what the stream can't receive (messages without participants) for the followed conversations,
+     * then run again after the interval while the stream is attached
+     */
+    @MainThread
+    private void catchUpSubscribedConversations() {
+        if (registration == null) return;
+        List<String> conversationIds;
+        synchronized (subscriptions) {
+            conversationIds = new ArrayList<>(subscriptions.keySet());
+        }
+        executor.execute(() -> {
+            for (String conversationId : conversationIds) {
+                List<ChatMessage> fetchedMessages;
+                try {
+                    fetchedMessages = messageRepository.catchUp(conversationId);
+                } catch (Exception e) {
+                    continue;
+                }
+                for (Subscription subscription : getSubscriptions(conversationId)) {
+                    subscription.deliver(fetchedMessages, Collections.emptyList());
+                }
+            }
+        });
+        handler.postDelayed(catchUp, CATCH_UP_INTERVAL_MS);
+    }
+
+    @MainThread
+    private void listen(Date watermark) {
+        String userId = preferenceManager.getString(Constants.KEY_USER_ID);
+        if (userId == null) return;
+        registration = database.collection(Constants.KEY_COLLECTION_CHAT)
+                .whereArrayContains(Constants.KEY_PARTICIPANTS, userId)
+                .whereGreaterThan(Constants.KEY_TIMESTAMP, watermark)
+                .addSnapshotListener(executor, this::onSnapshot);
+    }
+
+    @MainThread
+    private void stop() {
+        if (registration == null) return;
+        registration.remove();
+        registration = null;
+        handler.removeCallbacks(catchUp);
+        // nothing is received while detached, conversations are caught up again on the next start
+        executor.execute(syncedConversationIds::clear);
+    }
+
+    /**
+     * Runs on executor: store the changes, then hand them to the subscribers of their conversation
+     */
+    private void onSnapshot(QuerySnapshot value, FirebaseFirestoreException error) {
+        if (error != null || value == null) return;
+        Map<String, List<ChatMessage>> changedMessages = new HashMap<>();
+        Map<String, List<String>> removedMessageIds = new HashMap<>();
+        for (DocumentChange documentChange : value.getDocumentChanges()) {
+            ChatMessage chatMessage = MessageRepository.getChatMessage(documentChange.getDocument());
+            if (chatMessage.conversationId == null) continue;
+            if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                messageRepository.delete(chatMessage.id);
+                getList(removedMessageIds, chatMessage.conversationId).add(chatMessage.id);
+            } else {
+                // the local echo of a message still in the outbox
+                chatMessage.pending = documentChange.getDocument().getMetadata().hasPendingWrites();
+                getList(changedMessages, chatMessage.conversationId).add(chatMessage);
+                if (chatMessage.dateObject != null && (newestReceived == null || chatMessage.dateObject.after(newestReceived))) {
+                    newestReceived = chatMessage.dateObject;
+                }
+            }
+        }
+        for (Map.Entry<String, List<ChatMessage>> entry : changedMessages.entrySet()) {
+            // stored only once nothing older is missing, the conversation is read from the network when opened otherwise
+            if (syncConversation(entry.getKey()) != null) messageRepository.save(entry.getValue());
+        }
+        Set<String> conversationIds = new HashSet<>(changedMessages.keySet());
+        conversationIds.addAll(removedMessageIds.keySet());
+        for (String conversationId : conversationIds) {
+            List<ChatMessage> changed = changedMessages.get(conversationId);
+            List<String> removed = removedMessageIds.get(conversationId);
+            for (Subscription subscription : getSubscriptions(conversationId)) {
+                subscription.deliver(changed == null ? Collections.emptyList() : changed,
+                        removed == null ? Collections.emptyList() : removed);
+            }
+        }
+        if (value.size() >= MAX_LISTENED_MESSAGES && newestReceived != null) {
+            Date watermark = newestReceived;
+            handler.post(() -> {
+                if (registration == null) return;
+                registration.remove();
+                listen(watermark);
+            });
+        }
+    }
+
+    /**
+     * Fetch what the device is missing of a conversation, once per start of the stream
+     * @return the messages fetched, null when the stored range of the conversation doesn't reach the messages received live
+     */
+    @WorkerThread
+    @Nullable
+    private List<ChatMessage> syncConversation(String conversationId) {
+        if (syncedConversationIds.contains(conversationId)) return Collections.emptyList();
+        List<ChatMessage> messages;
+        try {
+            messages = messageRepository.catchUp(conversationId);
+        } catch (Exception e) {
+            return null;
+        }
+        syncedConversationIds.add(conversationId);
+        return messages;
+    }
+
+    @NonNull
+    private List<Subscription> getSubscriptions(String conversationId) {
+        synchronized (subscriptions) {
+            List<Subscription> conversationSubscriptions = subscriptions.get(conversationId);
+            return conversationSubscriptions == null ? Collections.emptyList() : new ArrayList<>(conversationSubscriptions);
+        }
+    }
+
+    @NonNull
+    private static <T> List<T> getList(Map<String, List<T>> lists, String key) {
+        List<T> list = lists.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            lists.put(key, list);
+        }
+        return list;
+    }
+
+    private static class Subscription {
+
+        private final Executor executor;
+        private final InboxListener inboxListener;
+        volatile boolean isActive = true;
+
+        Subscription(Executor executor, InboxListener inboxListener) {
+            this.executor = executor;
+            this.inboxListener = inboxListener;
+        }
+
+        void deliver(List<ChatMessage> changedMessages, List<String> removedMessageIds) {
+            if (changedMessages.isEmpty() && removedMessageIds.isEmpty()) return;
+            executor.execute(() -> {
+                if (isActive) inboxListener.onInboxChanged(changedMessages, removedMessageIds);
+            });
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.babblechatapp.firebase;
+
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.example.babblechatapp.BuildConfig;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Firestore listeners tied to the lifecycle of the screen showing them: attached while the screen is started,
+ * detached in onStop (a screen in the back stack costs no reads) and dropped in onDestroy, so no listener
+ * outlives its screen or keeps it in memory. Process-wide, the attached listeners can be counted from anywhere
+ * (i.e. a debugger or a test). Must only be used on the main thread
+ */
+public class ListenerRegistry {
+
+    private static final String TAG = "ListenerRegistry";
+    private static final ListenerRegistry instance = new ListenerRegistry();
+
+    /**
+     * Attaches the listener, called again on every start so it can resume from what was already seen
+     */
+    public interface Attacher {
+        @NonNull
+        ListenerRegistration attach();
+    }
+
+    // attached listeners by name
+    private final Map<String, Integer> activeCounts = new HashMap<>();
+    private int activeCount;
+
+    private ListenerRegistry() {
+    }
+
+    public static ListenerRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Keep a listener attached while the owner is started, right away if it already is
+     * @param owner activity showing what the listener receives
+     * @param name what the listener is for, counts are kept by name
+     * @param attacher attaches the listener
+     * @return registration dropping the listener before the owner is destroyed
+     */
+    @MainThread
+    @NonNull
+    public ListenerRegistration register(LifecycleOwner owner, String name, Attacher attacher) {
+        ManagedListener managedListener = new ManagedListener(name, attacher);
+        Lifecycle lifecycle = owner.getLifecycle();
+        // an observer added to a started lifecycle is brought up to date, which attaches the listener
+        lifecycle.addObserver(managedListener);
+        return () -> {
+            lifecycle.removeObserver(managedListener);
+            managedListener.detach();
+        };
+    }
+
+    /**
+     * @return number of listeners currently attached
+     */
+    @MainThread
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * @return number of listeners currently attached by name, names without attached listeners are left out
+     */
+    @MainThread
+    @NonNull
+    public Map<String, Integer> getActiveCounts() {
+        return new HashMap<>(activeCounts);
+    }
+
+    private void updateActiveCount(String name, int change) {
+        activeCount += change;
+        int count = activeCounts.containsKey(name) ? activeCounts.get(name) + change : change;
+        if (count == 0) {
+            activeCounts.remove(name);
+        } else {
+            activeCounts.put(name, count);
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, name + (change > 0 ? " attached, " : " detached, ") + activeCount + " active: " + activeCounts);
+    }
+
+    private class ManagedListener implements LifecycleEventObserver {
+
+        private final String name;
+        private final Attacher attacher;
+        private ListenerRegistration registration;
+
+        ManagedListener(String name, Attacher attacher) {
+            this.name = name;
+            this.attacher = attacher;
+        }
+
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_START) {
+                attach();
+            } else if (event == Lifecycle.Event.ON_STOP) {
+                detach();
+            } else if (event == Lifecycle.Event.ON_DESTROY) {
+                source.getLifecycle().removeObserver(this);
+            }
+        }
+
+        private void attach() {
+            if (registration != null) return;
+            registration = attacher.attach();
+            updateActiveCount(name, 1);
+        }
+
+        void detach() {
+            if (registration == null) return;
+            registration.remove();
+            registration = null;
+            updateActiveCount(name, -1);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.babblechatapp.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.example.babblechatapp.listeners.OutboxListener;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.repositories.ConversationRepository;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Outbound queue of the messages of one conversation.
+ * Messages sent in a burst are coalesced into one {@link WriteBatch}, which also updates both conversation
+ * summaries once for the whole burst. A batch is committed as soon as its window closes: Firestore persists it,
+ * writes the batches of the client in the order they were committed and retries them itself while offline, so
+ * nothing waits in memory for the server. A batch only fails when the server refuses it.
+ * Messages carry a client-generated document id, so the snapshot listener's echo lands on the message already
+ * shown by the sender. Must only be used on the main thread
+ */
+public class MessageOutbox {
+
+    // messages sent within this window are committed together
+    private static final long COALESCE_DELAY_MS = 100;
+    // every message is one write, the two summaries are written once per batch (the limit is 500 writes)
+    private static final int MAX_BATCH_SIZE = 400;
+
+    private final FirebaseFirestore database;
+    private final ConversationRepository conversationRepository;
+    private final User sender;
+    private final User receiver;
+    private final String conversationId;
+    private final OutboxListener outboxListener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<ChatMessage> queuedMessages = new ArrayList<>();
+    private boolean isFlushScheduled;
+    private boolean isClosed;
+
+    /**
+     * @param sender the signed-in user (id, name and imageHash are used)
+     * @param receiver the peer the messages are sent to
+     * @param conversationId id of the conversation between them
+     * @param outboxListener told when queued messages are stored on the server or given up on
+     */
+    public MessageOutbox(FirebaseFirestore database, ConversationRepository conversationRepository,
+                         User sender, User receiver, String conversationId, OutboxListener outboxListener) {
+        this.database = database;
+        this.conversationRepository = conversationRepository;
+        this.sender = sender;
+        this.receiver = receiver;
+        this.conversationId = conversationId;
+        this.outboxListener = outboxListener;
+    }
+
+    /**
+     * @return id for a new message, generated on the device so the message can be shown before it is written
+     */
+    @NonNull
+    public String newMessageId() {
+        return database.collection(Constants.KEY_COLLECTION_CHAT).document().getId();
+    }
+
+    /**
+     * Queue a message, it is committed with the other messages sent within the coalescing window
+     * @param chatMessage message with an id from {@link #newMessageId()}
+     */
+    @MainThread
+    public void send(ChatMessage chatMessage) {
+        queuedMessages.add(chatMessage);
+        if (isFlushScheduled || isClosed) return;
+        isFlushScheduled = true;
+        handler.postDelayed(this::flush, COALESCE_DELAY_MS);
+    }
+
+    /**
+     * Stop the queue (i.e. when the chat is closed), the messages still in the coalescing window are committed.
+     * Committed batches are kept by Firestore, which writes them once back online
+     */
+    @MainThread
+    public void close() {
+        isClosed = true;
+        handler.removeCallbacksAndMessages(null);
+        flush();
+    }
+
+    private void flush() {
+        isFlushScheduled = false;
+        while (!queuedMessages.isEmpty()) {
+            List<ChatMessage> batchMessages = new ArrayList<>(
+                    queuedMessages.subList(0, Math.min(MAX_BATCH_SIZE, queuedMessages.size()))
+            );
+            queuedMessages.subList(0, batchMessages.size()).clear();
+            commit(batchMessages).addOnCompleteListener(task -> {
+                if (isClosed) return;
+                if (task.isSuccessful()) {
+                    outboxListener.onMessagesSent(batchMessages);
+                } else {
+                    outboxListener.onMessagesFailed(batchMessages);
+                }
+            });
+        }
+    }
+
+    @NonNull
+    private Task<Void> commit(List<ChatMessage> batchMessages) {
+        WriteBatch batch = database.batch();
+        for (ChatMessage chatMessage : batchMessages) {
+            batch.set(database.collection(Constants.KEY_COLLECTION_CHAT).document(chatMessage.id), getMessage(chatMessage));
+        }
+        ChatMessage lastMessage = batchMessages.get(batchMessages.size() - 1);
+        conversationRepository.addSentMessages(
+                batch, sender, receiver, conversationId, lastMessage.message, lastMessage.dateObject, batchMessages.size()
+        );
+        return batch.commit();
+    }
+
+    @NonNull
+    private HashMap<String, Object> getMessage(ChatMessage chatMessage) {
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(Constants.KEY_SENDER_ID, sender.id);
+        message.put(Constants.KEY_RECEIVER_ID, receiver.id);
+        message.put(Constants.KEY_CONVERSATION_ID, conversationId);
+        message.put(Constants.KEY_PARTICIPANTS, Arrays.asList(sender.id, receiver.id));
+        message.put(Constants.KEY_MESSAGE, chatMessage.message);
+        message.put(Constants.KEY_TIMESTAMP, chatMessage.dateObject);
+        return message;
+    }
+}
@@ -1,23 +1,155 @@
 package com.example.babblechatapp.firebase;
 
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Build;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.core.app.NotificationChannelCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.app.TaskStackBuilder;
+import androidx.work.ExistingWorkPolicy;
 
+import com.example.babblechatapp.R;
+import com.example.babblechatapp.activities.ChatActivity;
+import com.example.babblechatapp.activities.MainActivity;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.repositories.ConversationRepository;
+import com.example.babblechatapp.repositories.MessageRepository;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.PreferenceManager;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives new message pushes. They are data messages with the keys
+ * conversationId, senderId, name and imageHash (of the sender) and messageIds (comma separated ids of the new messages).
+ * The messages are fetched into the local store before the notification is shown, so opening the chat from it is a local read
+ */
 public class MessagingService extends FirebaseMessagingService {
 
+    private static final String CHANNEL_MESSAGES = "messages";
+    private static final String GROUP_MESSAGES = "com.example.babblechatapp.MESSAGES";
+    private static final int SUMMARY_NOTIFICATION_ID = 0;
+    // lines shown in the notification of a conversation
+    private static final int MAX_NOTIFICATION_LINES = 5;
+
     @Override
     public void onNewToken(@NonNull String token) {
         super.onNewToken(token);
-        Log.d("FCM", "Token: " + token); // for debugging purpose
+        // differs from the registered token, so the worker writes it
+        TokenRegistrationWorker.enqueue(getApplicationContext(), ExistingWorkPolicy.REPLACE);
     }
 
+    /**
+     * Runs on a background thread of the messaging service, which can block for a few seconds
+     * @param remoteMessage the push, notification messages (sent from the console) have no data and are only logged
+     */
     @Override
     public void onMessageReceived(@NonNull RemoteMessage remoteMessage) {
         super.onMessageReceived(remoteMessage);
-        Log.d("FCM", "Message: " + remoteMessage.getNotification().getBody());
+        Map<String, String> data = remoteMessage.getData();
+        String conversationId = data.get(Constants.KEY_CONVERSATION_ID);
+        String messageIds = data.get(Constants.KEY_MESSAGE_IDS);
+        if (conversationId == null || TextUtils.isEmpty(messageIds)) {
+            if (remoteMessage.getNotification() != null) {
+                Log.d("FCM", "Message: " + remoteMessage.getNotification().getBody());
+            }
+            return;
+        }
+        PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
+        if (!preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) return;
+        MessageRepository messageRepository = new MessageRepository(getApplicationContext());
+        // an open chat receives the messages on the inbox stream, which stores them already
+        if (!InboxStream.getInstance(getApplicationContext()).hasSubscribers(conversationId)) {
+            try {
+                messageRepository.prefetch(conversationId, Arrays.asList(messageIds.split(",")));
+            } catch (Exception e) {
+                // the chat fetches what is missing when it is opened
+                Log.w("FCM", "Unable to prefetch messages", e);
+            }
+        }
+        User sender = new User();
+        sender.id = data.get(Constants.KEY_SENDER_ID);
+        sender.name = data.get(Constants.KEY_NAME);
+        sender.imageHash = data.get(Constants.KEY_IMAGE_HASH);
+        if (sender.id == null) return;
+        List<ChatMessage> latestMessages = messageRepository.getLatestMessages(conversationId, MAX_NOTIFICATION_LINES);
+        acknowledgeDelivery(preferenceManager.getString(Constants.KEY_USER_ID), sender.id, latestMessages);
+        showNotification(conversationId, sender, latestMessages);
+    }
+
+    /**
+     * Move the sender's delivered watermark up to the newest message now on the device, one write for the whole push
+     */
+    private void acknowledgeDelivery(String userId, String senderId, List<ChatMessage> latestMessages) {
+        for (int i = latestMessages.size() - 1; i >= 0; i--) {
+            ChatMessage chatMessage = latestMessages.get(i);
+            if (senderId.equals(chatMessage.senderId) && chatMessage.dateObject != null) {
+                // queued by Firestore, which sends it once online even if this service is gone by then
+                new ConversationRepository().markAsDelivered(userId, senderId, chatMessage.dateObject);
+                return;
+            }
+        }
+    }
+
+    /**
+     * One notification per conversation listing its latest messages, grouped under a summary
+     */
+    private void showNotification(String conversationId, User sender, List<ChatMessage> latestMessages) {
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(this);
+        notificationManager.createNotificationChannel(
+                new NotificationChannelCompat.Builder(CHANNEL_MESSAGES, NotificationManagerCompat.IMPORTANCE_HIGH)
+                        .setName(getString(R.string.channel_messages))
+                        .build()
+        );
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        String lastMessage = null;
+        for (ChatMessage chatMessage : latestMessages) {
+            if (!sender.id.equals(chatMessage.senderId)) continue;
+            style.addLine(chatMessage.message);
+            lastMessage = chatMessage.message;
+        }
+        if (lastMessage == null) return; // nothing new could be read
+        notificationManager.notify(conversationId.hashCode(), new NotificationCompat.Builder(this, CHANNEL_MESSAGES)
+                .setSmallIcon(R.drawable.ic_notification)
+                .setContentTitle(sender.name)
+                .setContentText(lastMessage)
+                .setStyle(style)
+                .setGroup(GROUP_MESSAGES)
+                .setAutoCancel(true)
+                .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+                .setContentIntent(getChatIntent(conversationId, sender))
+                .build());
+        notificationManager.notify(SUMMARY_NOTIFICATION_ID, new NotificationCompat.Builder(this, CHANNEL_MESSAGES)
+                .setSmallIcon(R.drawable.ic_notification)
+                .setContentTitle(getString(R.string.app_name))
+                .setGroup(GROUP_MESSAGES)
+                .setGroupSummary(true)
+                .setAutoCancel(true)
+                .build());
+    }
+
+    /**
+     * @return intent opening the chat with the sender, with the main screen below it
+     */
+    @NonNull
+    private PendingIntent getChatIntent(String conversationId, User sender) {
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        intent.putExtra(Constants.KEY_USER, sender);
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) flags |= PendingIntent.FLAG_IMMUTABLE;
+        return TaskStackBuilder.create(this)
+                .addNextIntent(new Intent(getApplicationContext(), MainActivity.class))
+                .addNextIntent(intent)
+                .getPendingIntent(conversationId.hashCode(), flags);
     }
 }
@@ -0,0 +1,166 @@
+package com.example.babblechatapp.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.example.babblechatapp.listeners.PresenceListener;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Online and typing state of the users of one conversation, all kept in the single document presence/{conversationId}
+ * (one map per user), so following the peer is one small listener.
+ * Writes are throttled, so a conversation costs a bounded number of writes however fast the user types:
+ * at most one write per {@link #TYPING_THROTTLE_MS} while typing goes on, one when it stops, and one heartbeat per
+ * {@link #HEARTBEAT_MS} while the conversation is open. Firestore can't clear the state of a client that dies,
+ * so readers treat a state that hasn't been refreshed in time as stale. Must only be used on the main thread
+ */
+public class PresenceChannel {
+
+    static final long TYPING_THROTTLE_MS = 3000;
+    // typing stops after this long without a keystroke
+    private static final long TYPING_IDLE_MS = 4000;
+    private static final long HEARTBEAT_MS = 60000;
+    // a typing state is refreshed every TYPING_THROTTLE_MS, the margin covers network delays and clock differences
+    private static final long TYPING_TIMEOUT_MS = 10000;
+    private static final long ONLINE_TIMEOUT_MS = 2 * HEARTBEAT_MS + 30000;
+
+    private final DocumentReference documentReference;
+    private final String userId;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable heartbeat = this::write;
+    private final Runnable typingIdle = this::stopTyping;
+    private boolean isOnline;
+    private boolean isTyping;
+    // elapsed realtime of the last write
+    private long lastWriteAt;
+    @VisibleForTesting
+    int writeCount;
+    @VisibleForTesting
+    Task<Void> lastWrite;
+
+    /**
+     * @param conversationId id of the conversation
+     * @param userId id of the signed-in user
+     */
+    public PresenceChannel(FirebaseFirestore database, String conversationId, String userId) {
+        this.documentReference = database.collection(Constants.KEY_COLLECTION_PRESENCE).document(conversationId);
+        this.userId = userId;
+    }
+
+    /**
+     * The conversation is shown (i.e. onStart)
+     */
+    @MainThread
+    public void goOnline() {
+        isOnline = true;
+        write();
+    }
+
+    /**
+     * The conversation is no longer shown (i.e. onStop), also stops typing
+     */
+    @MainThread
+    public void goOffline() {
+        handler.removeCallbacks(typingIdle);
+        isOnline = false;
+        isTyping = false;
+        write();
+    }
+
+    /**
+     * Called on every keystroke, only written when typing starts or once the throttle window has passed
+     */
+    @MainThread
+    public void onTyping() {
+        handler.removeCallbacks(typingIdle);
+        handler.postDelayed(typingIdle, TYPING_IDLE_MS);
+        if (isTyping && SystemClock.elapsedRealtime() - lastWriteAt < TYPING_THROTTLE_MS) return;
+        isTyping = true;
+        write();
+    }
+
+    /**
+     * The message was sent or erased
+     */
+    @MainThread
+    public void stopTyping() {
+        handler.removeCallbacks(typingIdle);
+        if (!isTyping) return;
+        isTyping = false;
+        write();
+    }
+
+    /**
+     * Follow the state of the peer. A state is re-evaluated when it becomes stale, even without a new snapshot
+     * @param peerId id of the other user of the conversation
+     * @param presenceListener called on the main thread whenever the state may have changed
+     * @return registration stopping the listener and the pending re-evaluation
+     */
+    @MainThread
+    @NonNull
+    public ListenerRegistration listen(String peerId, PresenceListener presenceListener) {
+        Runnable[] expiry = new Runnable[1];
+        ListenerRegistration registration = documentReference.addSnapshotListener((documentSnapshot, error) -> {
+            if (error != null || documentSnapshot == null) return;
+            if (expiry[0] != null) handler.removeCallbacks(expiry[0]);
+            expiry[0] = () -> notifyPresence(documentSnapshot, peerId, presenceListener, expiry[0]);
+            expiry[0].run();
+        });
+        return () -> {
+            registration.remove();
+            if (expiry[0] != null) handler.removeCallbacks(expiry[0]);
+        };
+    }
+
+    private void notifyPresence(DocumentSnapshot documentSnapshot, String peerId, PresenceListener presenceListener, Runnable expiry) {
+        Object state = documentSnapshot.get(peerId);
+        if (!(state instanceof Map)) {
+            presenceListener.onPresenceChanged(false, false, null);
+            return;
+        }
+        Map<?, ?> peerState = (Map<?, ?>) state;
+        Object lastSeenValue = peerState.get(Constants.KEY_LAST_SEEN);
+        Date lastSeen = lastSeenValue instanceof Timestamp ? ((Timestamp) lastSeenValue).toDate() : null;
+        long age = lastSeen == null ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - lastSeen.getTime());
+        boolean isOnline = Boolean.TRUE.equals(peerState.get(Constants.KEY_ONLINE)) && age < ONLINE_TIMEOUT_MS;
+        boolean isTyping = isOnline && Boolean.TRUE.equals(peerState.get(Constants.KEY_TYPING)) && age < TYPING_TIMEOUT_MS;
+        presenceListener.onPresenceChanged(isOnline, isTyping, lastSeen);
+        // check again when the shown state turns stale
+        if (isTyping) {
+            handler.postDelayed(expiry, TYPING_TIMEOUT_MS - age);
+        } else if (isOnline) {
+            handler.postDelayed(expiry, ONLINE_TIMEOUT_MS - age);
+        }
+    }
+
+    private void write() {
+        handler.removeCallbacks(heartbeat);
+        HashMap<String, Object> state = new HashMap<>();
+        state.put(Constants.KEY_ONLINE, isOnline);
+        state.put(Constants.KEY_TYPING, isTyping);
+        state.put(Constants.KEY_LAST_SEEN, FieldValue.serverTimestamp());
+        lastWriteAt = SystemClock.elapsedRealtime();
+        writeCount++;
+        lastWrite = documentReference.set(Collections.singletonMap(userId, state), SetOptions.merge());
+        // every write refreshes the state, the heartbeat only runs while nothing else is written
+        if (isOnline) handler.postDelayed(heartbeat, HEARTBEAT_MS);
+    }
+}
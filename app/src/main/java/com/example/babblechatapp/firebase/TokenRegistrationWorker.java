@@ -0,0 +1,87 @@
+package com.example.babblechatapp.firebase;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.PreferenceManager;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the FCM token of the device to the signed-in user's document, only when it differs from the token
+ * last written or that write is older than {@link #RESYNC_INTERVAL_MS}.
+ * Runs through WorkManager once the device is online, and is retried with exponential backoff on failure
+ */
+public class TokenRegistrationWorker extends Worker {
+
+    private static final String UNIQUE_WORK_NAME = "tokenRegistration";
+    // an unchanged token is written again after this long, so the server keeps seeing it alive
+    private static final long RESYNC_INTERVAL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long INITIAL_BACKOFF_SECONDS = 30;
+
+    public TokenRegistrationWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Register the token unless a registration is already pending (i.e. on every start of the main screen)
+     */
+    public static void enqueue(Context context) {
+        enqueue(context, ExistingWorkPolicy.KEEP);
+    }
+
+    /**
+     * @param existingWorkPolicy REPLACE when the token just changed, so a pending registration of the old one is dropped
+     */
+    public static void enqueue(Context context, ExistingWorkPolicy existingWorkPolicy) {
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(TokenRegistrationWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, INITIAL_BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(UNIQUE_WORK_NAME, existingWorkPolicy, workRequest);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        PreferenceManager preferenceManager = new PreferenceManager(getApplicationContext());
+        if (!preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) return Result.success();
+        try {
+            String token = Tasks.await(FirebaseMessaging.getInstance().getToken());
+            long lastSyncedAt = preferenceManager.getLong(Constants.KEY_FCM_TOKEN_SYNCED_AT);
+            if (token.equals(preferenceManager.getString(Constants.KEY_FCM_TOKEN))
+                    && System.currentTimeMillis() - lastSyncedAt < RESYNC_INTERVAL_MS) {
+                return Result.success();
+            }
+            Tasks.await(FirebaseFirestore.getInstance()
+                    .collection(Constants.KEY_COLLECTION_USERS)
+                    .document(preferenceManager.getString(Constants.KEY_USER_ID))
+                    .update(Constants.KEY_FCM_TOKEN, token, Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp()));
+            // the user may have signed out meanwhile, which cleared the preferences
+            if (!preferenceManager.getBoolean(Constants.KEY_IS_SIGNED_IN)) return Result.success();
+            preferenceManager.edit()
+                    .putString(Constants.KEY_FCM_TOKEN, token)
+                    .putLong(Constants.KEY_FCM_TOKEN_SYNCED_AT, System.currentTimeMillis())
+                    .apply();
+            return Result.success();
+        } catch (Exception e) {
+            return Result.retry();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.babblechatapp.listeners;
+
+import com.example.babblechatapp.models.Conversation;
+
+public interface ConversationListener {
+    void onConversationClicked(Conversation conversation);
+}
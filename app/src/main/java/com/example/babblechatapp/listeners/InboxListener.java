@@ -0,0 +1,13 @@
+package com.example.babblechatapp.listeners;
+
+import com.example.babblechatapp.models.ChatMessage;
+
+import java.util.List;
+
+public interface InboxListener {
+    /**
+     * @param changedMessages new and modified messages of the conversation
+     * @param removedMessageIds ids of its deleted messages
+     */
+    void onInboxChanged(List<ChatMessage> changedMessages, List<String> removedMessageIds);
+}
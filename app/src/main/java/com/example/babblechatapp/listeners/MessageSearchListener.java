@@ -0,0 +1,7 @@
+package com.example.babblechatapp.listeners;
+
+import com.example.babblechatapp.models.MessageSearchResult;
+
+public interface MessageSearchListener {
+    void onSearchResultClicked(MessageSearchResult messageSearchResult);
+}
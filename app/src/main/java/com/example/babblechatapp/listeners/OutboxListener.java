@@ -0,0 +1,11 @@
+package com.example.babblechatapp.listeners;
+
+import com.example.babblechatapp.models.ChatMessage;
+
+import java.util.List;
+
+public interface OutboxListener {
+    void onMessagesSent(List<ChatMessage> chatMessages);
+
+    void onMessagesFailed(List<ChatMessage> chatMessages);
+}
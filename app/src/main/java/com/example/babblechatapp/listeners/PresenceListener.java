@@ -0,0 +1,10 @@
+package com.example.babblechatapp.listeners;
+
+import java.util.Date;
+
+public interface PresenceListener {
+    /**
+     * @param lastSeen last time the peer had the conversation open, null if never
+     */
+    void onPresenceChanged(boolean isOnline, boolean isTyping, Date lastSeen);
+}
@@ -3,6 +3,9 @@ package com.example.babblechatapp.models;
 import java.util.Date;
 
 public class ChatMessage {
-    public String senderId, receiverId, message, dateTime;
+    // conversationId is the group id and receiverId is null for a group message, which carries its sender's name instead
+    public String id, conversationId, senderId, receiverId, senderName, message, dateTime;
     public Date dateObject;
+    // shown to the sender before the server has stored it
+    public boolean pending;
 }
@@ -0,0 +1,19 @@
+package com.example.babblechatapp.models;
+
+import java.util.Date;
+
+/**
+ * Summary of a conversation as shown in the recent conversations list, one per peer of the signed-in user
+ * and one per group they are a member of
+ */
+public class Conversation {
+    // id is the peer's user id, or the group id for a group
+    public String id, conversationId, name, imageHash, lastMessage, lastSenderId, dateTime;
+    public boolean isGroup;
+    public Date dateObject;
+    public long unreadCount;
+    // number of messages received from the peer so far
+    public long receivedCount;
+    // the peer's watermarks: every message of the user up to these dates reached the peer's device / was read
+    public Date peerDeliveredAt, peerReadAt;
+}
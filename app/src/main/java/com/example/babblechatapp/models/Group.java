@@ -0,0 +1,14 @@
+package com.example.babblechatapp.models;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Group conversation, one document holding the ids of its members and what the conversations list shows of it
+ */
+public class Group implements Serializable {
+    public String id, name, lastMessage, lastSenderId, lastSenderName;
+    public List<String> members;
+    public Date dateObject;
+}
@@ -0,0 +1,9 @@
+package com.example.babblechatapp.models;
+
+/**
+ * Message found by the message search, with the other user of its conversation
+ */
+public class MessageSearchResult {
+    public ChatMessage chatMessage;
+    public User peer;
+}
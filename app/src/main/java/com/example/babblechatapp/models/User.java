@@ -6,5 +6,5 @@ import android.os.Parcelable;
 import java.io.Serializable;
 
 public class User implements Serializable {
-    public String name,image,email,token, id;
+    public String name,image,email,token, id, imageHash;
 }
@@ -0,0 +1,190 @@
+package com.example.babblechatapp.repositories;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthInvalidUserException;
+import com.google.firebase.auth.FirebaseAuthWeakPasswordException;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+
+/**
+ * Accounts are Firebase Auth users, their profile is the users document holding their uid in authUid.
+ * New profiles use the uid as document id. Profiles created before Firebase Auth keep their document id
+ * (messages and conversations refer to it), their account is created in Firebase Auth the first time they sign in
+ * and the password they held is removed from the users collection
+ */
+public class AccountRepository {
+
+    // random bytes of the password given to a migrated account whose own password Firebase Auth refuses
+    private static final int RANDOM_PASSWORD_BYTES = 24;
+
+    private final FirebaseAuth auth;
+    private final FirebaseFirestore database;
+
+    public AccountRepository() {
+        auth = FirebaseAuth.getInstance();
+        database = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * @return task resolving to the profile of the signed-in user, fails on a wrong email or password, or with
+     * {@link PasswordResetRequiredException} when a legacy account had to be given a new password
+     */
+    public Task<DocumentSnapshot> signIn(String email, String password) {
+        return auth.signInWithEmailAndPassword(email, password).continueWithTask(task -> {
+            if (task.isSuccessful()) return getProfile(task.getResult().getUser().getUid());
+            // no such account in Firebase Auth yet, it may still be a profile holding its password
+            if (task.getException() instanceof FirebaseAuthInvalidUserException) return migrateLegacyAccount(email, password);
+            throw task.getException();
+        });
+    }
+
+    /**
+     * Create the account, then its profile
+     * @param profile fields of the new users document (name, email, image...), without the password
+     * @return task resolving to the new users document
+     */
+    public Task<DocumentReference> signUp(String email, String password, HashMap<String, Object> profile) {
+        return auth.createUserWithEmailAndPassword(email, password).continueWithTask(task -> {
+            if (!task.isSuccessful()) throw task.getException();
+            FirebaseUser user = task.getResult().getUser();
+            DocumentReference documentReference = getUsers().document(user.getUid());
+            profile.put(Constants.KEY_AUTH_UID, user.getUid());
+            return documentReference.set(profile).continueWith(setTask -> {
+                if (!setTask.isSuccessful()) {
+                    // an account without profile could never sign in, let the user sign up again
+                    user.delete();
+                    throw setTask.getException();
+                }
+                return documentReference;
+            });
+        });
+    }
+
+    public void signOut() {
+        auth.signOut();
+    }
+
+    @NonNull
+    private Task<DocumentSnapshot> getProfile(String authUid) {
+        return getUsers().whereEqualTo(Constants.KEY_AUTH_UID, authUid).limit(1).get().continueWith(task -> {
+            if (!task.isSuccessful()) throw task.getException();
+            return getFirstDocument(task.getResult());
+        });
+    }
+
+    /**
+     * Move a profile created before Firebase Auth to an account with the same email and password
+     */
+    @NonNull
+    private Task<DocumentSnapshot> migrateLegacyAccount(String email, String password) {
+        return getUsers()
+                .whereEqualTo(Constants.KEY_EMAIL, email)
+                .whereEqualTo(Constants.KEY_PASSWORD, password)
+                .limit(1)
+                .get()
+                .continueWithTask(task -> {
+                    if (!task.isSuccessful()) throw task.getException();
+                    // the profile matched, so the legacy password is verified
+                    DocumentSnapshot profile = getFirstDocument(task.getResult());
+                    return auth.createUserWithEmailAndPassword(email, password).continueWithTask(authTask -> {
+                        if (authTask.isSuccessful()) return linkLegacyProfile(profile, authTask.getResult().getUser());
+                        if (authTask.getException() instanceof FirebaseAuthWeakPasswordException) {
+                            return migrateWeakPassword(email, profile);
+                        }
+                        throw authTask.getException();
+                    });
+                });
+    }
+
+    /**
+     * Legacy passwords only had to be non-empty, Firebase Auth refuses the short ones. The account is created with
+     * a random password instead and the user is sent a reset email to choose a new one
+     * @return task failing with {@link PasswordResetRequiredException} once the account is migrated
+     */
+    @NonNull
+    private Task<DocumentSnapshot> migrateWeakPassword(String email, DocumentSnapshot profile) {
+        return auth.createUserWithEmailAndPassword(email, newRandomPassword()).continueWithTask(authTask -> {
+            if (!authTask.isSuccessful()) throw authTask.getException();
+            FirebaseUser user = authTask.getResult().getUser();
+            return auth.sendPasswordResetEmail(email)
+                    .continueWithTask(resetTask -> {
+                        if (!resetTask.isSuccessful()) {
+                            // nobody could sign in to an account with a password no one knows
+                            user.delete();
+                            throw resetTask.getException();
+                        }
+                        return linkLegacyProfile(profile, user);
+                    })
+                    .continueWithTask(linkTask -> {
+                        if (!linkTask.isSuccessful()) throw linkTask.getException();
+                        auth.signOut();
+                        return Tasks.forException(new PasswordResetRequiredException());
+                    });
+        });
+    }
+
+    /**
+     * Hand the legacy profile over to its new account and drop the password it held. The account is deleted if the
+     * profile can't be updated, so the next sign in still finds no account and migrates again
+     */
+    @NonNull
+    private Task<DocumentSnapshot> linkLegacyProfile(DocumentSnapshot profile, FirebaseUser user) {
+        return profile.getReference().update(
+                Constants.KEY_AUTH_UID, user.getUid(),
+                Constants.KEY_PASSWORD, FieldValue.delete(),
+                Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp()
+        ).continueWith(updateTask -> {
+            if (!updateTask.isSuccessful()) {
+                user.delete();
+                throw updateTask.getException();
+            }
+            return profile;
+        });
+    }
+
+    @NonNull
+    private static String newRandomPassword() {
+        byte[] bytes = new byte[RANDOM_PASSWORD_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
+
+    @NonNull
+    private static DocumentSnapshot getFirstDocument(QuerySnapshot querySnapshot) throws FirebaseFirestoreException {
+        if (querySnapshot.isEmpty()) {
+            throw new FirebaseFirestoreException("No profile for this account", FirebaseFirestoreException.Code.NOT_FOUND);
+        }
+        return querySnapshot.getDocuments().get(0);
+    }
+
+    @NonNull
+    private CollectionReference getUsers() {
+        return database.collection(Constants.KEY_COLLECTION_USERS);
+    }
+
+    /**
+     * The account was migrated but its password has to be changed, a reset email was sent to its address
+     */
+    public static class PasswordResetRequiredException extends Exception {
+
+        public PasswordResetRequiredException() {
+            super("A new password has to be chosen, a reset email was sent");
+        }
+    }
+}
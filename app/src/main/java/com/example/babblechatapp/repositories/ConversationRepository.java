@@ -0,0 +1,148 @@
+package com.example.babblechatapp.repositories;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.babblechatapp.models.Conversation;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Denormalized conversation summaries, stored for every user under users/{userId}/conversations/{peerId}.
+ * Each summary holds what the recent conversations list shows (last message, unread count, peer name and avatar),
+ * so the list is one small query on the user's own subcollection instead of a scan of the users and chat collections.
+ * Read state is kept as watermarks instead of a flag per message: the summary counts the messages received and read
+ * (the unread count is their difference), and the peer's summary holds the dates up to which the user's device got
+ * and read the peer's messages, which gives the sent/delivered/read status of every message
+ */
+public class ConversationRepository {
+
+    private final FirebaseFirestore database;
+
+    public ConversationRepository() {
+        database = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * @param userId id of the signed-in user
+     * @param after only conversations with an older last message are returned, null for the most recent ones
+     * @param limit maximum number of conversations returned
+     * @return query of the user's conversations, most recent first
+     */
+    @NonNull
+    public Query getConversationsQuery(String userId, @Nullable Date after, int limit) {
+        Query query = getConversations(userId).orderBy(Constants.KEY_TIMESTAMP, Query.Direction.DESCENDING);
+        if (after != null) query = query.startAfter(after);
+        return query.limit(limit);
+    }
+
+    /**
+     * Add the summary updates of sent messages to the batch writing them, so the messages and both summaries
+     * are committed together: the receiver's received count goes up by the number of messages
+     * @param batch batch writing the messages
+     * @param sender the signed-in user (id, name and imageHash are used)
+     * @param receiver the peer the messages are sent to (id, name and imageHash are used)
+     * @param conversationId id of the conversation between them
+     * @param lastMessage text of the last message of the batch
+     * @param timestamp time of the last message of the batch
+     * @param messageCount number of messages in the batch
+     */
+    public void addSentMessages(WriteBatch batch, User sender, User receiver, String conversationId,
+                                String lastMessage, Date timestamp, int messageCount) {
+        HashMap<String, Object> senderSummary = getSummary(receiver, conversationId, sender.id, lastMessage, timestamp);
+        batch.set(getConversations(sender.id).document(receiver.id), senderSummary, SetOptions.merge());
+        HashMap<String, Object> receiverSummary = getSummary(sender, conversationId, sender.id, lastMessage, timestamp);
+        receiverSummary.put(Constants.KEY_RECEIVED_COUNT, FieldValue.increment(messageCount));
+        batch.set(getConversations(receiver.id).document(sender.id), receiverSummary, SetOptions.merge());
+    }
+
+    /**
+     * @return the summary of a conversation, to follow its counts and the peer's watermarks
+     */
+    @NonNull
+    public DocumentReference getConversationReference(String userId, String peerId) {
+        return getConversations(userId).document(peerId);
+    }
+
+    /**
+     * Acknowledge everything up to the last message of the summary in one batch, whatever the number of messages:
+     * the user's read count catches up with the received count, and the peer's summary gets the read watermark
+     * @param userId id of the signed-in user
+     * @param conversation the user's summary as last read, both count and date come from it so they match
+     */
+    public Task<Void> markAsRead(String userId, Conversation conversation) {
+        WriteBatch batch = database.batch();
+        HashMap<String, Object> summary = new HashMap<>();
+        summary.put(Constants.KEY_READ_COUNT, conversation.receivedCount);
+        summary.put(Constants.KEY_READ_AT, conversation.dateObject);
+        summary.put(Constants.KEY_UNREAD_COUNT, FieldValue.delete());
+        batch.update(getConversations(userId).document(conversation.id), summary);
+        batch.set(getConversations(conversation.id).document(userId),
+                Collections.singletonMap(Constants.KEY_PEER_READ_AT, conversation.dateObject), SetOptions.merge());
+        return batch.commit();
+    }
+
+    /**
+     * Tell the peer that their messages up to the given date reached the user's device
+     * @param userId id of the signed-in user
+     * @param peerId id of the sender of the messages
+     * @param timestamp time of the newest message received
+     */
+    public Task<Void> markAsDelivered(String userId, String peerId, Date timestamp) {
+        return getConversations(peerId).document(userId)
+                .set(Collections.singletonMap(Constants.KEY_PEER_DELIVERED_AT, timestamp), SetOptions.merge());
+    }
+
+    @NonNull
+    private CollectionReference getConversations(String userId) {
+        return database.collection(Constants.KEY_COLLECTION_USERS)
+                .document(userId)
+                .collection(Constants.KEY_COLLECTION_CONVERSATIONS);
+    }
+
+    @NonNull
+    private static HashMap<String, Object> getSummary(User peer, String conversationId, String senderId, String message, Date timestamp) {
+        HashMap<String, Object> summary = new HashMap<>();
+        summary.put(Constants.KEY_CONVERSATION_ID, conversationId);
+        summary.put(Constants.KEY_NAME, peer.name);
+        summary.put(Constants.KEY_IMAGE_HASH, peer.imageHash);
+        summary.put(Constants.KEY_LAST_MESSAGE, message);
+        summary.put(Constants.KEY_LAST_SENDER_ID, senderId);
+        summary.put(Constants.KEY_TIMESTAMP, timestamp);
+        return summary;
+    }
+
+    @NonNull
+    public static Conversation getConversation(DocumentSnapshot documentSnapshot) {
+        Conversation conversation = new Conversation();
+        conversation.id = documentSnapshot.getId();
+        conversation.conversationId = documentSnapshot.getString(Constants.KEY_CONVERSATION_ID);
+        conversation.name = documentSnapshot.getString(Constants.KEY_NAME);
+        conversation.imageHash = documentSnapshot.getString(Constants.KEY_IMAGE_HASH);
+        conversation.lastMessage = documentSnapshot.getString(Constants.KEY_LAST_MESSAGE);
+        conversation.lastSenderId = documentSnapshot.getString(Constants.KEY_LAST_SENDER_ID);
+        conversation.dateObject = documentSnapshot.getDate(Constants.KEY_TIMESTAMP);
+        Long receivedCount = documentSnapshot.getLong(Constants.KEY_RECEIVED_COUNT);
+        Long readCount = documentSnapshot.getLong(Constants.KEY_READ_COUNT);
+        Long legacyUnreadCount = documentSnapshot.getLong(Constants.KEY_UNREAD_COUNT);
+        conversation.receivedCount = receivedCount == null ? 0 : receivedCount;
+        conversation.unreadCount = Math.max(0, conversation.receivedCount - (readCount == null ? 0 : readCount))
+                + (legacyUnreadCount == null ? 0 : legacyUnreadCount);
+        conversation.peerDeliveredAt = documentSnapshot.getDate(Constants.KEY_PEER_DELIVERED_AT);
+        conversation.peerReadAt = documentSnapshot.getDate(Constants.KEY_PEER_READ_AT);
+        return conversation;
+    }
+}
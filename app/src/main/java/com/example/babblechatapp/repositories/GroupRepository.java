@@ -0,0 +1,222 @@
+package com.example.babblechatapp.repositories;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.Conversation;
+import com.example.babblechatapp.models.Group;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.DocumentSnapshot.ServerTimestampBehavior;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Group conversations, stored once under groups/{groupId} with the ids of their members, their messages under
+ * groups/{groupId}/messages. Nothing is copied per member: a message is one write to the subcollection plus one
+ * to the group document (its last message), and every member's client reads it once through the one listener
+ * of the open group, so the cost of a message stays the same whatever the number of members.
+ * The groups of a user are one array-contains query on the members, joining or leaving is one array update.
+ * Messages and the last message of a group are stamped with the server time, not the clock of the sender's device:
+ * the order of the messages, the listener's bound and the last message then agree whatever the members' clocks say
+ */
+public class GroupRepository {
+
+    // the member ids are read with every group document, this keeps it small
+    public static final int MAX_MEMBERS = 256;
+
+    private final FirebaseFirestore database;
+
+    public GroupRepository() {
+        database = FirebaseFirestore.getInstance();
+    }
+
+    public GroupRepository(FirebaseFirestore database) {
+        this.database = database;
+    }
+
+    /**
+     * @param creator the signed-in user (id and name are used), first member of the group
+     * @param name name of the group
+     * @param memberIds ids of the other members
+     * @return task completing with the group once it is written
+     */
+    public Task<Group> create(User creator, String name, Collection<String> memberIds) {
+        Set<String> members = new LinkedHashSet<>();
+        members.add(creator.id);
+        members.addAll(memberIds);
+        if (members.size() > MAX_MEMBERS) {
+            return Tasks.forException(new IllegalArgumentException("A group has at most " + MAX_MEMBERS + " members"));
+        }
+        Group group = new Group();
+        group.id = getGroups().document().getId();
+        group.name = name;
+        group.members = new ArrayList<>(members);
+        group.dateObject = new Date();
+        HashMap<String, Object> fields = new HashMap<>();
+        fields.put(Constants.KEY_NAME, group.name);
+        fields.put(Constants.KEY_MEMBERS, group.members);
+        // a new group is listed with the recent conversations until a message is sent
+        fields.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+        return getGroups().document(group.id).set(fields).continueWith(task -> {
+            if (!task.isSuccessful()) throw task.getException();
+            return group;
+        });
+    }
+
+    /**
+     * @param userId id of the signed-in user
+     * @param limit maximum number of groups returned
+     * @return query of the groups the user is a member of, most recent first
+     */
+    @NonNull
+    public Query getGroupsQuery(String userId, int limit) {
+        return getGroups()
+                .whereArrayContains(Constants.KEY_MEMBERS, userId)
+                .orderBy(Constants.KEY_TIMESTAMP, Query.Direction.DESCENDING)
+                .limit(limit);
+    }
+
+    /**
+     * Leave a group, its messages stay for the other members
+     */
+    public Task<Void> leave(String groupId, String userId) {
+        return getGroups().document(groupId).update(Constants.KEY_MEMBERS, FieldValue.arrayRemove(userId));
+    }
+
+    /**
+     * @param groupId id of the group
+     * @param before only messages strictly older than this are returned, null for the newest page
+     * @param limit maximum number of messages returned
+     * @return query of a page of history, newest first
+     */
+    @NonNull
+    public Query getMessagesBeforeQuery(String groupId, @Nullable Date before, int limit) {
+        Query query = getMessages(groupId).orderBy(Constants.KEY_TIMESTAMP, Query.Direction.DESCENDING);
+        if (before != null) query = query.whereLessThan(Constants.KEY_TIMESTAMP, before);
+        return query.limit(limit);
+    }
+
+    /**
+     * Messages written by this device show up before the server has stamped them, Firestore sorts them after
+     * every stamped one until then
+     * @param groupId id of the group
+     * @param after server time of the newest message already loaded, null if none is
+     * @return query of the messages newer than it, oldest first, to listen to
+     */
+    @NonNull
+    public Query getNewMessagesQuery(String groupId, @Nullable Date after) {
+        Query query = getMessages(groupId).orderBy(Constants.KEY_TIMESTAMP);
+        if (after != null) query = query.whereGreaterThan(Constants.KEY_TIMESTAMP, after);
+        return query;
+    }
+
+    /**
+     * @return id for a new message of the group, generated on the device
+     */
+    @NonNull
+    public String newMessageId(String groupId) {
+        return getMessages(groupId).document().getId();
+    }
+
+    /**
+     * Write the message and the group's last message together, two writes whatever the number of members.
+     * Firestore queues the batch while offline, the listener of the group shows it as pending meanwhile.
+     * Both are stamped when the batch reaches the server, so a batch held back by a slow member lands as the
+     * newest message and never replaces a last message with an older one
+     * @param chatMessage message with its id, group id and sender set
+     */
+    public Task<Void> send(ChatMessage chatMessage) {
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(Constants.KEY_SENDER_ID, chatMessage.senderId);
+        message.put(Constants.KEY_SENDER_NAME, chatMessage.senderName);
+        message.put(Constants.KEY_MESSAGE, chatMessage.message);
+        message.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+        HashMap<String, Object> lastMessage = new HashMap<>();
+        lastMessage.put(Constants.KEY_LAST_MESSAGE, chatMessage.message);
+        lastMessage.put(Constants.KEY_LAST_SENDER_ID, chatMessage.senderId);
+        lastMessage.put(Constants.KEY_LAST_SENDER_NAME, chatMessage.senderName);
+        lastMessage.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+        WriteBatch batch = database.batch();
+        batch.set(getMessages(chatMessage.conversationId).document(chatMessage.id), message);
+        batch.update(getGroups().document(chatMessage.conversationId), lastMessage);
+        return batch.commit();
+    }
+
+    @NonNull
+    private CollectionReference getGroups() {
+        return database.collection(Constants.KEY_COLLECTION_GROUPS);
+    }
+
+    @NonNull
+    private CollectionReference getMessages(String groupId) {
+        return getGroups().document(groupId).collection(Constants.KEY_COLLECTION_MESSAGES);
+    }
+
+    @NonNull
+    public static Group getGroup(DocumentSnapshot documentSnapshot) {
+        Group group = new Group();
+        group.id = documentSnapshot.getId();
+        group.name = documentSnapshot.getString(Constants.KEY_NAME);
+        group.lastMessage = documentSnapshot.getString(Constants.KEY_LAST_MESSAGE);
+        group.lastSenderId = documentSnapshot.getString(Constants.KEY_LAST_SENDER_ID);
+        group.lastSenderName = documentSnapshot.getString(Constants.KEY_LAST_SENDER_NAME);
+        // the device's estimate until the server has stamped a write of this device
+        group.dateObject = documentSnapshot.getDate(Constants.KEY_TIMESTAMP, ServerTimestampBehavior.ESTIMATE);
+        group.members = new ArrayList<>();
+        Object members = documentSnapshot.get(Constants.KEY_MEMBERS);
+        if (members instanceof List) {
+            for (Object member : (List<?>) members) {
+                if (member instanceof String) group.members.add((String) member);
+            }
+        }
+        return group;
+    }
+
+    @NonNull
+    public static ChatMessage getChatMessage(String groupId, DocumentSnapshot documentSnapshot) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = documentSnapshot.getId();
+        chatMessage.conversationId = groupId;
+        chatMessage.senderId = documentSnapshot.getString(Constants.KEY_SENDER_ID);
+        chatMessage.senderName = documentSnapshot.getString(Constants.KEY_SENDER_NAME);
+        chatMessage.message = documentSnapshot.getString(Constants.KEY_MESSAGE);
+        chatMessage.dateObject = documentSnapshot.getDate(Constants.KEY_TIMESTAMP, ServerTimestampBehavior.ESTIMATE);
+        return chatMessage;
+    }
+
+    /**
+     * @param group group of the user
+     * @param userId id of the signed-in user, the last messages of the others are prefixed with their name
+     * @return the group as a row of the recent conversations list
+     */
+    @NonNull
+    public static Conversation getConversation(Group group, String userId) {
+        Conversation conversation = new Conversation();
+        conversation.id = group.id;
+        conversation.conversationId = group.id;
+        conversation.isGroup = true;
+        conversation.name = group.name;
+        conversation.lastMessage = group.lastMessage == null || group.lastSenderName == null || userId.equals(group.lastSenderId)
+                ? group.lastMessage
+                : group.lastSenderName + ": " + group.lastMessage;
+        conversation.lastSenderId = group.lastSenderId;
+        conversation.dateObject = group.dateObject;
+        return conversation;
+    }
+}
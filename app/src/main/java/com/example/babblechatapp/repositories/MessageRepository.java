@@ -0,0 +1,287 @@
+package com.example.babblechatapp.repositories;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.babblechatapp.database.BabbleDatabase;
+import com.example.babblechatapp.database.MessageDao;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.utilities.AppExecutors;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.TextNormalizer;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Chat messages served from the on-device database, which holds for every conversation a contiguous range
+ * of messages ending at the newest one. Firestore is only asked for what is missing: messages newer than
+ * the newest stored one (see {@link #getNewMessagesQuery(String, Date)}) and history older than the oldest one
+ */
+public class MessageRepository {
+
+    // most values a whereIn filter accepts
+    private static final int MAX_IN_VALUES = 10;
+    private static final Pattern NON_WORD_CHARACTERS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final String SYNC_STATE_PREFIX = "messages";
+    // set once the oldest message of a conversation is stored
+    private static final String SYNC_HISTORY_COMPLETE = SYNC_STATE_PREFIX + "HistoryComplete_";
+    // time of the newest stored message when pushed messages were stored past it, messages may be missing in between
+    private static final String SYNC_GAP_AFTER = SYNC_STATE_PREFIX + "GapAfter_";
+
+    private final BabbleDatabase babbleDatabase;
+    private final MessageDao messageDao;
+    private final FirebaseFirestore database;
+
+    public MessageRepository(Context context) {
+        babbleDatabase = BabbleDatabase.getInstance(context);
+        messageDao = new MessageDao(babbleDatabase);
+        database = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * @param conversationId id of the conversation
+     * @param limit maximum number of messages returned
+     * @return the newest stored messages of the conversation, oldest first, without any network access
+     */
+    @WorkerThread
+    public List<ChatMessage> getLatestMessages(String conversationId, int limit) {
+        return messageDao.getMessagesBefore(conversationId, null, limit);
+    }
+
+    /**
+     * @param conversationId id of the conversation
+     * @param after only messages strictly newer than this are returned
+     * @param limit maximum number of messages returned
+     * @return the stored messages following {@code after}, oldest first, without any network access
+     */
+    @WorkerThread
+    public List<ChatMessage> getMessagesAfter(String conversationId, Date after, int limit) {
+        return messageDao.getMessagesAfter(conversationId, after, limit);
+    }
+
+    /**
+     * @param conversationId id of the conversation
+     * @param timestamp time of the message the window is centered on
+     * @param limit maximum number of messages returned
+     * @return the stored messages around {@code timestamp}, half of them up to it and the rest after it, oldest first,
+     * without any network access
+     */
+    @WorkerThread
+    public List<ChatMessage> getMessageWindow(String conversationId, Date timestamp, int limit) {
+        List<ChatMessage> messages = messageDao.getMessagesBefore(conversationId, new Date(timestamp.getTime() + 1), limit / 2 + 1);
+        messages.addAll(messageDao.getMessagesAfter(conversationId, timestamp, limit - messages.size()));
+        return messages;
+    }
+
+    /**
+     * Full-text search over the messages stored on the device, of every conversation
+     * @param query text typed by the user, case and accents don't matter
+     * @param limit maximum number of messages returned
+     * @return the matching messages, best match first
+     */
+    public Task<List<ChatMessage>> search(String query, int limit) {
+        return Tasks.call(AppExecutors.background(), () -> {
+            List<String> terms = new ArrayList<>();
+            // the index only holds words, anything else would be read as query syntax
+            for (String term : NON_WORD_CHARACTERS.split(TextNormalizer.normalize(query))) {
+                if (!term.isEmpty()) terms.add(term);
+            }
+            return messageDao.search(terms, limit);
+        });
+    }
+
+    /**
+     * Read a page of history from the device, fetching the missing part from Firestore when the device
+     * doesn't hold enough of it. Blocks on the network, so it must not be called on the main thread
+     * @param conversationId id of the conversation
+     * @param before only messages strictly older than this are returned, null for the newest page
+     * @param limit maximum number of messages returned
+     * @return the messages, oldest first
+     */
+    @WorkerThread
+    public List<ChatMessage> getMessagesBefore(String conversationId, @Nullable Date before, int limit)
+            throws ExecutionException, InterruptedException {
+        List<ChatMessage> messages = messageDao.getMessagesBefore(conversationId, before, limit);
+        if (messages.size() >= limit || isHistoryComplete(conversationId)) return messages;
+        Date oldestStored = messageDao.getOldestTimestamp(conversationId);
+        Query query = getConversationQuery(conversationId).orderBy(Constants.KEY_TIMESTAMP, Query.Direction.DESCENDING);
+        if (oldestStored != null) query = query.whereLessThan(Constants.KEY_TIMESTAMP, oldestStored);
+        QuerySnapshot querySnapshot = Tasks.await(query.limit(limit).get());
+        messageDao.upsert(getChatMessages(querySnapshot.getDocuments()));
+        if (querySnapshot.size() < limit) {
+            babbleDatabase.putSyncState(SYNC_HISTORY_COMPLETE + conversationId, 1);
+        }
+        return messageDao.getMessagesBefore(conversationId, before, limit);
+    }
+
+    /**
+     * @return time of the newest stored message of the conversation, null if none is stored
+     */
+    @WorkerThread
+    @Nullable
+    public Date getNewestTimestamp(String conversationId) {
+        return messageDao.getNewestTimestamp(conversationId);
+    }
+
+    /**
+     * @param conversationId id of the conversation
+     * @param after time of the newest stored message, null if none is stored
+     * @return query of the messages the device is missing, to listen to
+     */
+    @NonNull
+    public Query getNewMessagesQuery(String conversationId, @Nullable Date after) {
+        Query query = getConversationQuery(conversationId);
+        if (after != null) query = query.whereGreaterThan(Constants.KEY_TIMESTAMP, after);
+        return query;
+    }
+
+    /**
+     * Store pushed messages ahead of the chat being opened. Blocks on the network, so it must not be called on the main thread.
+     * Only the pushed messages are fetched, whatever the device missed before them (a push that never came) is
+     * fetched by {@link #catchUp(String)} once the conversation is followed, so a push stays a few reads
+     * @param conversationId id of the conversation
+     * @param messageIds ids of the pushed messages
+     * @return the fetched messages, oldest first
+     */
+    @WorkerThread
+    public List<ChatMessage> prefetch(String conversationId, List<String> messageIds)
+            throws ExecutionException, InterruptedException {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int start = 0; start < messageIds.size(); start += MAX_IN_VALUES) {
+            List<String> chunk = messageIds.subList(start, Math.min(start + MAX_IN_VALUES, messageIds.size()));
+            QuerySnapshot querySnapshot = Tasks.await(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereIn(FieldPath.documentId(), chunk)
+                    .get());
+            messages.addAll(getChatMessages(querySnapshot.getDocuments()));
+        }
+        // the pushed ids may belong to another conversation if the payload is stale or forged
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (!conversationId.equals(messages.get(i).conversationId)) messages.remove(i);
+        }
+        Date newestStored = messageDao.getNewestTimestamp(conversationId);
+        if (newestStored != null && babbleDatabase.getSyncState(SYNC_GAP_AFTER + conversationId, 0) == 0) {
+            for (ChatMessage chatMessage : messages) {
+                if (chatMessage.dateObject != null && chatMessage.dateObject.after(newestStored)) {
+                    // the stored range may stop being contiguous here, the next catch up starts from it
+                    babbleDatabase.putSyncState(SYNC_GAP_AFTER + conversationId, newestStored.getTime());
+                    break;
+                }
+            }
+        }
+        messageDao.upsert(messages);
+        return messageDao.getMessagesBefore(conversationId, null, messages.size());
+    }
+
+    /**
+     * Store everything newer than the newest stored message of a conversation, or than the start of a gap left by
+     * pushed messages, so its stored range is contiguous and reaches the newest message again.
+     * Blocks on the network, so it must not be called on the main thread
+     * @param conversationId id of the conversation
+     * @return the fetched messages, oldest first, none when nothing is stored (the newest messages can then be stored as they come)
+     */
+    @WorkerThread
+    public List<ChatMessage> catchUp(String conversationId) throws ExecutionException, InterruptedException {
+        Date newestStored = messageDao.getNewestTimestamp(conversationId);
+        if (newestStored == null) return new ArrayList<>();
+        long gapAfter = babbleDatabase.getSyncState(SYNC_GAP_AFTER + conversationId, 0);
+        Date after = gapAfter != 0 ? new Date(gapAfter) : newestStored;
+        QuerySnapshot querySnapshot = Tasks.await(getNewMessagesQuery(conversationId, after)
+                .orderBy(Constants.KEY_TIMESTAMP, Query.Direction.ASCENDING)
+                .get());
+        List<ChatMessage> messages = getChatMessages(querySnapshot.getDocuments());
+        messageDao.upsert(messages);
+        if (gapAfter != 0) babbleDatabase.putSyncState(SYNC_GAP_AFTER + conversationId, 0);
+        return messages;
+    }
+
+    @WorkerThread
+    public void save(List<ChatMessage> messages) {
+        messageDao.upsert(messages);
+    }
+
+    /**
+     * Store messages that only just got the conversation id (legacy messages once tagged), so the queries of the
+     * conversation missed them so far. Those within the stored range fill its gaps, older ones are left to the
+     * history, which is no longer complete
+     * @param conversationId id of the conversation
+     * @param messages the tagged messages
+     */
+    @WorkerThread
+    public void saveTagged(String conversationId, List<ChatMessage> messages) {
+        Date oldestStored = messageDao.getOldestTimestamp(conversationId);
+        List<ChatMessage> storedRangeMessages = new ArrayList<>();
+        boolean hasOlderMessages = false;
+        for (ChatMessage chatMessage : messages) {
+            if (oldestStored != null && chatMessage.dateObject != null && !chatMessage.dateObject.before(oldestStored)) {
+                storedRangeMessages.add(chatMessage);
+            } else {
+                hasOlderMessages = true;
+            }
+        }
+        messageDao.upsert(storedRangeMessages);
+        if (hasOlderMessages) babbleDatabase.putSyncState(SYNC_HISTORY_COMPLETE + conversationId, 0);
+    }
+
+    @WorkerThread
+    public void delete(String id) {
+        messageDao.delete(id);
+    }
+
+    /**
+     * Forget every stored message (i.e. on sign out)
+     */
+    public Task<Void> clear() {
+        return Tasks.call(AppExecutors.background(), () -> {
+            messageDao.deleteAll();
+            babbleDatabase.deleteSyncStates(SYNC_STATE_PREFIX);
+            return null;
+        });
+    }
+
+    @WorkerThread
+    private boolean isHistoryComplete(String conversationId) {
+        return babbleDatabase.getSyncState(SYNC_HISTORY_COMPLETE + conversationId, 0) == 1;
+    }
+
+    @NonNull
+    private Query getConversationQuery(String conversationId) {
+        return database.collection(Constants.KEY_COLLECTION_CHAT)
+                .whereEqualTo(Constants.KEY_CONVERSATION_ID, conversationId);
+    }
+
+    @NonNull
+    private static List<ChatMessage> getChatMessages(List<DocumentSnapshot> documentSnapshots) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (DocumentSnapshot documentSnapshot : documentSnapshots) {
+            messages.add(getChatMessage(documentSnapshot));
+        }
+        return messages;
+    }
+
+    @NonNull
+    public static ChatMessage getChatMessage(DocumentSnapshot documentSnapshot) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = documentSnapshot.getId();
+        chatMessage.conversationId = documentSnapshot.getString(Constants.KEY_CONVERSATION_ID);
+        chatMessage.senderId = documentSnapshot.getString(Constants.KEY_SENDER_ID);
+        chatMessage.receiverId = documentSnapshot.getString(Constants.KEY_RECEIVER_ID);
+        chatMessage.message = documentSnapshot.getString(Constants.KEY_MESSAGE);
+        chatMessage.dateObject = documentSnapshot.getDate(Constants.KEY_TIMESTAMP);
+        return chatMessage;
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.babblechatapp.repositories;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.example.babblechatapp.database.BabbleDatabase;
+import com.example.babblechatapp.database.UserDao;
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.AppExecutors;
+import com.example.babblechatapp.utilities.Constants;
+import com.example.babblechatapp.utilities.TextNormalizer;
+import com.example.babblechatapp.utilities.UserSearchIndex;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User directory served from the on-device cache and kept up to date from Firestore.
+ * Until the whole directory has been crawled once, pages come from Firestore (cursor on name then id)
+ * and are cached as they arrive. After that, pages come from the cache and only users updated since
+ * the last sync are fetched: the first sync resumes from the newest update on the server when the crawl started,
+ * since users crawled early may have changed before it ended.
+ * Search answers from an in-memory index over the cache, Firestore is only queried (prefix queries on the
+ * normalized name and email) while the cache is still incomplete
+ */
+public class UserRepository {
+
+    private static final String SYNC_DIRECTORY_COMPLETE = "usersDirectoryComplete";
+    // server time (microseconds) the cache holds every update until
+    private static final String SYNC_UPDATED_UNTIL = "usersUpdatedUntil";
+    private static final int SYNC_PAGE_SIZE = 100;
+    // most values a whereIn filter accepts
+    private static final int MAX_IN_VALUES = 10;
+    // marks the end of a prefix range, sorts after any character a name can hold
+    private static final String PREFIX_END = "\uf8ff";
+
+    // built from the cache on the first search, dropped whenever the cache changes
+    private static volatile UserSearchIndex searchIndex;
+
+    private final UserDao userDao;
+    private final BabbleDatabase babbleDatabase;
+    private final FirebaseFirestore database;
+
+    public UserRepository(Context context) {
+        babbleDatabase = BabbleDatabase.getInstance(context);
+        userDao = new UserDao(babbleDatabase);
+        database = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * @param after last user of the previous page, null for the first page
+     * @param excludedUserId user left out of the page (the signed in user)
+     * @param limit page size
+     * @return the page as currently cached on the device
+     */
+    public Task<List<User>> getCachedPage(User after, String excludedUserId, int limit) {
+        return Tasks.call(AppExecutors.background(), () -> userDao.getPage(after, excludedUserId, limit));
+    }
+
+    /**
+     * @param after last user of the previous page, null for the first page
+     * @param excludedUserId user left out of the page (the signed in user)
+     * @param limit page size
+     * @return the page, from the cache once the directory is complete, from Firestore until then
+     */
+    public Task<List<User>> getPage(User after, String excludedUserId, int limit) {
+        return Tasks.call(AppExecutors.background(), () -> babbleDatabase.getSyncState(SYNC_DIRECTORY_COMPLETE, 0) == 1)
+                .continueWithTask(task -> {
+                    if (task.getResult()) return getCachedPage(after, excludedUserId, limit);
+                    return fetchPage(after, excludedUserId, limit);
+                });
+    }
+
+    /**
+     * Fetch the users updated since the last sync into the cache, only once the directory is complete
+     * @return task resolving to whether any cached user changed
+     */
+    public Task<Boolean> refresh() {
+        return Tasks.call(AppExecutors.background(), () -> {
+            if (babbleDatabase.getSyncState(SYNC_DIRECTORY_COMPLETE, 0) != 1) return false;
+            // users sharing one update time are split over pages without being skipped, the cursor includes the id
+            Query query = database.collection(Constants.KEY_COLLECTION_USERS)
+                    .orderBy(Constants.KEY_UPDATED_AT)
+                    .orderBy(FieldPath.documentId())
+                    .limit(SYNC_PAGE_SIZE);
+            Timestamp updatedUntil = toTimestamp(babbleDatabase.getSyncState(SYNC_UPDATED_UNTIL, 0));
+            QuerySnapshot querySnapshot = Tasks.await(query.startAfter(updatedUntil).get());
+            boolean hasChanges = false;
+            while (!querySnapshot.isEmpty()) {
+                List<DocumentSnapshot> documentSnapshots = querySnapshot.getDocuments();
+                cache(documentSnapshots);
+                hasChanges = true;
+                DocumentSnapshot lastDocument = documentSnapshots.get(documentSnapshots.size() - 1);
+                Timestamp lastUpdatedAt = lastDocument.getTimestamp(Constants.KEY_UPDATED_AT);
+                if (lastUpdatedAt != null) updatedUntil = lastUpdatedAt;
+                if (querySnapshot.size() < SYNC_PAGE_SIZE) break;
+                querySnapshot = Tasks.await(query.startAfter(lastDocument).get());
+            }
+            // only once every page is cached, an interrupted sync starts over from the previous point
+            if (hasChanges) babbleDatabase.putSyncState(SYNC_UPDATED_UNTIL, toMicroseconds(updatedUntil));
+            return hasChanges;
+        });
+    }
+
+    /**
+     * @param ids ids of the users
+     * @return the users found, from the cache when it holds them and from Firestore otherwise (without caching them,
+     * as with search results)
+     */
+    public Task<Map<String, User>> getUsers(Collection<String> ids) {
+        return Tasks.call(AppExecutors.background(), () -> {
+            Map<String, User> users = new HashMap<>();
+            for (User user : userDao.getUsers(new ArrayList<>(ids))) {
+                users.put(user.id, user);
+            }
+            List<String> missingIds = new ArrayList<>();
+            for (String id : ids) {
+                if (!users.containsKey(id)) missingIds.add(id);
+            }
+            for (int start = 0; start < missingIds.size(); start += MAX_IN_VALUES) {
+                QuerySnapshot querySnapshot = Tasks.await(database.collection(Constants.KEY_COLLECTION_USERS)
+                        .whereIn(FieldPath.documentId(), missingIds.subList(start, Math.min(start + MAX_IN_VALUES, missingIds.size())))
+                        .get());
+                for (DocumentSnapshot documentSnapshot : querySnapshot.getDocuments()) {
+                    users.put(documentSnapshot.getId(), getUser(documentSnapshot));
+                }
+            }
+            return users;
+        });
+    }
+
+    /**
+     * @param query normalized query, see {@link TextNormalizer#normalize(String)}
+     * @param excludedUserId user left out of the results (the signed in user)
+     * @param limit maximum number of results
+     * @return cached users whose name, a word of their name or email starts with the query
+     */
+    public Task<List<User>> searchCached(String query, String excludedUserId, int limit) {
+        return Tasks.call(AppExecutors.background(), () ->
+                userDao.getUsers(getSearchIndex().search(query, excludedUserId, limit)));
+    }
+
+    /**
+     * Prefix search in Firestore, for the users the cache doesn't hold yet. Results aren't cached,
+     * the directory sync would then skip the users before them
+     * @param query normalized query, see {@link TextNormalizer#normalize(String)}
+     * @param excludedUserId user left out of the results (the signed in user)
+     * @param limit maximum number of results
+     * @return users whose name or email starts with the query, empty once the cache holds the whole directory
+     */
+    public Task<List<User>> search(String query, String excludedUserId, int limit) {
+        return Tasks.call(AppExecutors.background(), () -> babbleDatabase.getSyncState(SYNC_DIRECTORY_COMPLETE, 0) == 1)
+                .continueWithTask(task -> {
+                    if (task.getResult()) return Tasks.<List<User>>forResult(new ArrayList<>());
+                    return Tasks.whenAllSuccess(
+                            getPrefixQuery(Constants.KEY_NAME_LOWER, query, limit).get(),
+                            getPrefixQuery(Constants.KEY_EMAIL_LOWER, query, limit).get()
+                    ).<List<User>>continueWith(AppExecutors.background(), results -> {
+                        Map<String, User> usersById = new LinkedHashMap<>();
+                        for (Object result : results.getResult()) {
+                            for (DocumentSnapshot documentSnapshot : ((QuerySnapshot) result).getDocuments()) {
+                                if (documentSnapshot.getId().equals(excludedUserId)) continue;
+                                if (usersById.size() < limit) usersById.put(documentSnapshot.getId(), getUser(documentSnapshot));
+                            }
+                        }
+                        return new ArrayList<>(usersById.values());
+                    });
+                });
+    }
+
+    @NonNull
+    private Query getPrefixQuery(String field, String prefix, int limit) {
+        return database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(field)
+                .startAt(prefix)
+                .endAt(prefix + PREFIX_END)
+                .limit(limit);
+    }
+
+    @WorkerThread
+    private UserSearchIndex getSearchIndex() {
+        UserSearchIndex index = searchIndex;
+        if (index != null) return index;
+        synchronized (UserRepository.class) {
+            if (searchIndex == null) searchIndex = new UserSearchIndex(userDao.getSearchEntries());
+            return searchIndex;
+        }
+    }
+
+    @NonNull
+    private Task<List<User>> fetchPage(User after, String excludedUserId, int limit) {
+        Query query = database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(Constants.KEY_NAME)
+                .orderBy(FieldPath.documentId());
+        if (after != null) query = query.startAfter(after.name, after.id);
+        Query pageQuery = query.limit(limit);
+        Task<Void> crawlStart = after == null ? markCrawlStart() : Tasks.forResult(null);
+        return crawlStart.continueWithTask(startTask -> {
+            if (!startTask.isSuccessful()) throw startTask.getException();
+            return pageQuery.get();
+        }).continueWith(AppExecutors.background(), task -> {
+            List<DocumentSnapshot> documentSnapshots = task.getResult().getDocuments();
+            List<User> users = cache(documentSnapshots);
+            if (documentSnapshots.size() < limit) {
+                // every user has been seen once, from now on only updates are fetched
+                babbleDatabase.putSyncState(SYNC_DIRECTORY_COMPLETE, 1);
+            }
+            List<User> page = new ArrayList<>();
+            for (User user : users) {
+                if (!user.id.equals(excludedUserId)) page.add(user);
+            }
+            return page;
+        });
+    }
+
+    /**
+     * Before the first crawl of the directory, remember the newest update on the server (server time, unlike the
+     * device clock): the first sync fetches everything updated after it, including users changed during the crawl
+     * after it had passed them. An interrupted crawl keeps the point of its first start, which is only earlier
+     */
+    @NonNull
+    private Task<Void> markCrawlStart() {
+        return Tasks.call(AppExecutors.background(), () -> babbleDatabase.getSyncState(SYNC_UPDATED_UNTIL, 0) != 0)
+                .continueWithTask(task -> {
+                    if (task.getResult()) return Tasks.forResult(null);
+                    return database.collection(Constants.KEY_COLLECTION_USERS)
+                            .orderBy(Constants.KEY_UPDATED_AT, Query.Direction.DESCENDING)
+                            .limit(1)
+                            .get()
+                            .continueWith(AppExecutors.background(), newestTask -> {
+                                if (!newestTask.isSuccessful()) throw newestTask.getException();
+                                List<DocumentSnapshot> documentSnapshots = newestTask.getResult().getDocuments();
+                                Timestamp newest = documentSnapshots.isEmpty()
+                                        ? null : documentSnapshots.get(0).getTimestamp(Constants.KEY_UPDATED_AT);
+                                // 0 means unset, an empty directory syncs from the epoch
+                                babbleDatabase.putSyncState(SYNC_UPDATED_UNTIL, newest == null ? 1 : toMicroseconds(newest));
+                                return null;
+                            });
+                });
+    }
+
+    @WorkerThread
+    private List<User> cache(List<DocumentSnapshot> documentSnapshots) {
+        List<User> users = new ArrayList<>();
+        List<Long> updatedAt = new ArrayList<>();
+        for (DocumentSnapshot documentSnapshot : documentSnapshots) {
+            users.add(getUser(documentSnapshot));
+            Date date = documentSnapshot.getDate(Constants.KEY_UPDATED_AT);
+            updatedAt.add(date == null ? 0 : date.getTime());
+        }
+        userDao.upsert(users, updatedAt);
+        synchronized (UserRepository.class) {
+            // waits for an index being built from the old rows, so it is dropped too
+            searchIndex = null;
+        }
+        return users;
+    }
+
+    /**
+     * Firestore keeps microseconds, a Date would truncate them and the newest user would match "after" it again
+     */
+    private static long toMicroseconds(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1000000 + timestamp.getNanoseconds() / 1000;
+    }
+
+    @NonNull
+    private static Timestamp toTimestamp(long microseconds) {
+        return new Timestamp(microseconds / 1000000, (int) (microseconds % 1000000) * 1000);
+    }
+
+    @NonNull
+    public static User getUser(DocumentSnapshot documentSnapshot) {
+        User user = new User();
+        user.name = documentSnapshot.getString(Constants.KEY_NAME);
+        user.email = documentSnapshot.getString(Constants.KEY_EMAIL);
+        user.image = documentSnapshot.getString(Constants.KEY_IMAGE);
+        user.imageHash = documentSnapshot.getString(Constants.KEY_IMAGE_HASH);
+        user.token = documentSnapshot.getString(Constants.KEY_FCM_TOKEN);
+        user.id = documentSnapshot.getId();
+        return user;
+    }
+}
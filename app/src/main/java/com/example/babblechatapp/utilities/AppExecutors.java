@@ -0,0 +1,45 @@
+package com.example.babblechatapp.utilities;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors shared by the whole app, so background work doesn't create its own threads everywhere
+ */
+public class AppExecutors {
+
+    private static final ExecutorService BACKGROUND = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() - 1)
+    );
+    private static final Executor MAIN_THREAD = new Executor() {
+        private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mainThreadHandler.post(command);
+        }
+    };
+
+    private AppExecutors() {
+    }
+
+    /**
+     * @return pool for decoding, disk and other work that must stay off the main thread
+     */
+    public static ExecutorService background() {
+        return BACKGROUND;
+    }
+
+    /**
+     * @return executor posting to the main (UI) thread
+     */
+    public static Executor mainThread() {
+        return MAIN_THREAD;
+    }
+}
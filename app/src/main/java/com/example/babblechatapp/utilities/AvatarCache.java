@@ -0,0 +1,131 @@
+package com.example.babblechatapp.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.babblechatapp.firebase.AvatarStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * App-wide cache of decoded profile images.
+ * Full images are keyed by their content hash ({@link AvatarStore}); inline thumbnails by user id plus a hash
+ * of the encoded image, so a changed avatar never hits a stale entry.
+ * Images are decoded on the background pool and bound to the views still waiting for them, full images are
+ * downloaded asynchronously so no pool thread waits on the network
+ */
+public class AvatarCache {
+
+    private static AvatarCache instance;
+
+    // decoded bitmaps, bounded by their size in KB (an eighth of the heap available to the app)
+    private final LruCache<String, Bitmap> bitmaps = new LruCache<String, Bitmap>(
+            (int) (Runtime.getRuntime().maxMemory() / 1024 / 8)
+    ) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount() / 1024;
+        }
+    };
+    // views waiting for an image that is being decoded, only touched on the main thread
+    private final Map<String, List<ImageView>> pendingViews = new HashMap<>();
+
+    private AvatarCache() {
+    }
+
+    public static synchronized AvatarCache getInstance() {
+        if (instance == null) instance = new AvatarCache();
+        return instance;
+    }
+
+    /**
+     * Bind an inline avatar to a view, see {@link #load(ImageView, String, String, String)}
+     */
+    public void load(ImageView imageView, String userId, String encodedImage) {
+        load(imageView, userId, encodedImage, null);
+    }
+
+    /**
+     * Bind the avatar of a user to a view, decoding it in the background on the first request only.
+     * The inline thumbnail is shown first, then replaced by the full image once it is fetched from the store.
+     * Must be called on the main thread
+     * @param imageView view showing the avatar, left empty (placeholder background) until an image is ready
+     * @param userId id of the user owning the avatar
+     * @param encodedImage Base64 encoded inline image (thumbnail)
+     * @param imageHash content hash of the full image in {@link AvatarStore}, null if the user has none
+     */
+    public void load(ImageView imageView, String userId, String encodedImage, String imageHash) {
+        String thumbnailKey = encodedImage == null ? null : getThumbnailKey(userId, encodedImage);
+        String key = imageHash != null ? imageHash : thumbnailKey;
+        imageView.setTag(key);
+        if (key == null) {
+            imageView.setImageDrawable(null);
+            return;
+        }
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+        Bitmap thumbnail = thumbnailKey == null ? null : bitmaps.get(thumbnailKey);
+        if (thumbnail != null) {
+            imageView.setImageBitmap(thumbnail);
+        } else {
+            imageView.setImageDrawable(null);
+        }
+        List<ImageView> views = pendingViews.get(key);
+        if (views != null) { // already being decoded
+            views.add(imageView);
+            return;
+        }
+        views = new ArrayList<>();
+        views.add(imageView);
+        pendingViews.put(key, views);
+        AvatarStore avatarStore = AvatarStore.getInstance(imageView.getContext());
+        AppExecutors.background().execute(() -> {
+            Bitmap decoded = null;
+            if (thumbnailKey != null) {
+                decoded = thumbnail != null ? thumbnail : decode(Base64.decode(encodedImage, Base64.DEFAULT));
+                if (decoded != null && thumbnail == null) bitmaps.put(thumbnailKey, decoded);
+            }
+            Bitmap decodedThumbnail = decoded;
+            if (imageHash == null) {
+                AppExecutors.mainThread().execute(() -> bindPendingViews(key, decodedThumbnail, true));
+                return;
+            }
+            if (decodedThumbnail != null) {
+                AppExecutors.mainThread().execute(() -> bindPendingViews(key, decodedThumbnail, false));
+            }
+            // the pool is shared with the chats and the database, it only decodes: no thread waits on the download
+            avatarStore.getBytes(imageHash).addOnCompleteListener(AppExecutors.background(), task -> {
+                Bitmap image = task.isSuccessful() ? decode(task.getResult()) : null;
+                if (image != null) bitmaps.put(imageHash, image);
+                Bitmap result = image != null ? image : decodedThumbnail;
+                AppExecutors.mainThread().execute(() -> bindPendingViews(key, result, true));
+            });
+        });
+    }
+
+    private void bindPendingViews(String key, Bitmap bitmap, boolean isFinished) {
+        List<ImageView> views = isFinished ? pendingViews.remove(key) : pendingViews.get(key);
+        if (views == null || bitmap == null) return;
+        for (ImageView view : views) {
+            // a recycled view may have been rebound to another user meanwhile
+            if (key.equals(view.getTag())) view.setImageBitmap(bitmap);
+        }
+    }
+
+    private static String getThumbnailKey(String userId, String encodedImage) {
+        return userId + ":" + encodedImage.length() + ":" + encodedImage.hashCode();
+    }
+
+    private static Bitmap decode(byte[] bytes) {
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
+}
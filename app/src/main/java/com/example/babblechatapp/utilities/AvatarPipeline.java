@@ -0,0 +1,142 @@
+package com.example.babblechatapp.utilities;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.example.babblechatapp.firebase.AvatarStore;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Turns a picked image into the sizes an avatar is stored in, on the background pool.
+ * The image is never decoded at full resolution: its bounds are read first, then it is decoded with the largest
+ * power of two sample size that still covers {@link AvatarStore#DISPLAY_WIDTH}, so a 12MP photo costs about 1MB of
+ * pixels instead of 48MB. The EXIF orientation is applied before encoding, as the encoded sizes carry no EXIF
+ */
+public class AvatarPipeline {
+
+    /**
+     * The sizes of one avatar
+     */
+    public static class Avatar {
+        // decoded image, small enough to be shown as the preview
+        public Bitmap preview;
+        // Base64 JPEG of THUMBNAIL_WIDTH, stored inline in the user document
+        public String thumbnail;
+        // JPEG of DISPLAY_WIDTH, uploaded to the image store
+        public byte[] display;
+    }
+
+    private AvatarPipeline() {
+    }
+
+    /**
+     * @param contentResolver resolver able to open the uri
+     * @param uri image picked by the user
+     * @return task resolving to the avatar (listeners run on the main thread)
+     */
+    public static Task<Avatar> process(ContentResolver contentResolver, Uri uri) {
+        return Tasks.call(AppExecutors.background(), () -> {
+            Bitmap bitmap = decode(contentResolver, uri, AvatarStore.DISPLAY_WIDTH);
+            Avatar avatar = new Avatar();
+            avatar.preview = bitmap;
+            avatar.display = AvatarStore.compress(bitmap, AvatarStore.DISPLAY_WIDTH);
+            avatar.thumbnail = Base64.encodeToString(AvatarStore.compress(bitmap, AvatarStore.THUMBNAIL_WIDTH), Base64.DEFAULT);
+            return avatar;
+        });
+    }
+
+    /**
+     * Decode an image no smaller than needed for the given size, upright
+     * @param minSize both sides of the decoded image are at least this size (unless the image itself is smaller)
+     */
+    @WorkerThread
+    @NonNull
+    static Bitmap decode(ContentResolver contentResolver, Uri uri, int minSize) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream inputStream = open(contentResolver, uri)) {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) throw new IOException("Not an image: " + uri);
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, minSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap;
+        try (InputStream inputStream = open(contentResolver, uri)) {
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (bitmap == null) throw new IOException("Unable to decode " + uri);
+        int orientation;
+        try (InputStream inputStream = open(contentResolver, uri)) {
+            orientation = new ExifInterface(inputStream)
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+        return applyOrientation(bitmap, orientation);
+    }
+
+    /**
+     * @return the largest power of two keeping the smaller side of the image at least minSize
+     */
+    static int getSampleSize(int width, int height, int minSize) {
+        int sampleSize = 1;
+        int smallerSide = Math.min(width, height);
+        while (smallerSide / (sampleSize * 2) >= minSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @NonNull
+    private static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) bitmap.recycle();
+        return oriented;
+    }
+
+    @NonNull
+    private static InputStream open(ContentResolver contentResolver, Uri uri) throws FileNotFoundException {
+        InputStream inputStream = contentResolver.openInputStream(uri);
+        if (inputStream == null) throw new FileNotFoundException(uri.toString());
+        return inputStream;
+    }
+}
@@ -4,17 +4,58 @@ public class Constants {
     public static final String KEY_COLLECTION_USERS="users";
     public static final String KEY_NAME = "name";
     public static final String KEY_EMAIL = "email";
+    // name and email folded for prefix search, see TextNormalizer
+    public static final String KEY_NAME_LOWER = "nameLower";
+    public static final String KEY_EMAIL_LOWER = "emailLower";
     public static final String KEY_PASSWORD = "password";
+    public static final String KEY_AUTH_UID = "authUid";
     public static final String KEY_PREFERENCE_NAME = "chatAppPreference";
     public static final String KEY_IS_SIGNED_IN = "isSignedIn";
     public static final String KEY_USER_ID = "userID";
     public static final String KEY_IMAGE = "image";
+    public static final String KEY_IMAGE_HASH = "imageHash";
+    public static final String KEY_UPDATED_AT = "updatedAt";
 //    Fire Cloud Messaging Token
     public static final String KEY_FCM_TOKEN = "fcmToken";
+    public static final String KEY_FCM_TOKEN_SYNCED_AT = "fcmTokenSyncedAt";
     public static final String KEY_USER = "user";
     public static final String KEY_COLLECTION_CHAT = "chat";
     public static final String KEY_SENDER_ID = "senderId";
     public static final String KEY_RECEIVER_ID = "receiverId";
     public static final String KEY_MESSAGE = "message";
     public static final String KEY_TIMESTAMP = "timestamp";
+    public static final String KEY_CONVERSATION_ID = "conversationId";
+    public static final String KEY_PARTICIPANTS = "participants";
+    public static final String KEY_MIGRATED_CONVERSATION_PREFIX = "migratedConversation_";
+    public static final String KEY_COLLECTION_CONVERSATIONS = "conversations";
+    public static final String KEY_LAST_MESSAGE = "lastMessage";
+    public static final String KEY_LAST_SENDER_ID = "lastSenderId";
+    // unread count of summaries written before read watermarks, see KEY_RECEIVED_COUNT and KEY_READ_COUNT
+    public static final String KEY_UNREAD_COUNT = "unreadCount";
+    public static final String KEY_RECEIVED_COUNT = "receivedCount";
+    public static final String KEY_READ_COUNT = "readCount";
+    public static final String KEY_READ_AT = "readAt";
+    public static final String KEY_PEER_DELIVERED_AT = "peerDeliveredAt";
+    public static final String KEY_PEER_READ_AT = "peerReadAt";
+    public static final String KEY_MESSAGE_IDS = "messageIds";
+    // extras of a chat opened on a given message (i.e. a search result)
+    public static final String KEY_MESSAGE_ID = "messageId";
+    public static final String KEY_MESSAGE_TIMESTAMP = "messageTimestamp";
+    // group conversations, groups/{groupId} with their messages under groups/{groupId}/messages
+    public static final String KEY_COLLECTION_GROUPS = "groups";
+    public static final String KEY_COLLECTION_MESSAGES = "messages";
+    public static final String KEY_MEMBERS = "members";
+    public static final String KEY_SENDER_NAME = "senderName";
+    public static final String KEY_LAST_SENDER_NAME = "lastSenderName";
+    public static final String KEY_GROUP = "group";
+    // extra of the users screen, opened to pick the members of a new group
+    public static final String KEY_CREATE_GROUP = "createGroup";
+    public static final String KEY_COLLECTION_PRESENCE = "presence";
+    public static final String KEY_ONLINE = "online";
+    public static final String KEY_TYPING = "typing";
+    public static final String KEY_LAST_SEEN = "lastSeen";
+//    Delivery status of a sent message, derived from the peer's watermarks
+    public static final int STATUS_SENT = 1;
+    public static final int STATUS_DELIVERED = 2;
+    public static final int STATUS_READ = 3;
 }
@@ -0,0 +1,19 @@
+package com.example.babblechatapp.utilities;
+
+public class ConversationUtils {
+
+    private ConversationUtils() {
+    }
+
+    /**
+     * Build the canonical id of the conversation between two users.
+     * The ids are ordered so both participants derive the same value no matter who is the sender
+     * @param userId id of one participant
+     * @param otherUserId id of the other participant
+     * @return conversation id shared by every message between the two users
+     */
+    public static String getConversationId(String userId, String otherUserId) {
+        if (userId.compareTo(otherUserId) <= 0) return userId + "_" + otherUserId;
+        return otherUserId + "_" + userId;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.babblechatapp.utilities;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+public class DateFormatUtils {
+
+    // SimpleDateFormat is expensive to build and not thread-safe, so every thread keeps its own instance
+    private static final ThreadLocal<SimpleDateFormat> READABLE_DATE_TIME = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("MMMM dd, yyy - hh:mm a", Locale.getDefault());
+        }
+    };
+
+    private DateFormatUtils() {
+    }
+
+    /**
+     * Format a message date for display (i.e. October 18, 2026 - 09:30 AM)
+     * @param date date to format
+     * @return readable date time, empty if the date is unknown
+     */
+    public static String getReadableDateTime(Date date) {
+        if (date == null) return "";
+        return READABLE_DATE_TIME.get().format(date);
+    }
+}
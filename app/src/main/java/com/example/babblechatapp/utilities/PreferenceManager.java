@@ -3,32 +3,58 @@ package com.example.babblechatapp.utilities;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Session settings (signed in user, profile, tokens...) of the app.
+ * Reads are served from an immutable in-memory snapshot of the settings, so they never touch the disk once the
+ * settings are loaded (BabbleApplication loads them on the background pool at startup). Edits replace the snapshot
+ * right away and are persisted on a background thread, one disk write per {@link Editor#apply()}
+ * @see <a href="https://www.geeksforgeeks.org/shared-preferences-in-android-with-examples/">Shared Preferences in Android</a>
+ */
 public class PreferenceManager {
-    // sharedPreference is actually
+
+    private static final Object LOCK = new Object();
+    // applies the edits to the preferences file in the order they were made, off the main thread
+    private static final Executor DISK_EXECUTOR = new SerialExecutor(AppExecutors.background());
+    // one snapshot for the whole process, shared by every PreferenceManager, replaced (never modified) by every edit
+    private static volatile Map<String, Object> snapshot;
+    private static SharedPreferences sharedPreferences;
+
     /**
-     * a Map<String, ?> data type to hold settings for later put into XML to share
-     * @see <a href="https://www.geeksforgeeks.org/shared-preferences-in-android-with-examples/">Shared Preferences in Android</a>
+     * Constructor taking a {@link Context} instance as arguments, the settings are read from disk the first time only
+     * @param context any context of the app
      */
-    private final SharedPreferences sharedPreferences;
+    public PreferenceManager(Context context) {
+        if (snapshot != null) return;
+        synchronized (LOCK) {
+            if (snapshot != null) return;
+            sharedPreferences = context.getApplicationContext()
+                    .getSharedPreferences(Constants.KEY_PREFERENCE_NAME, Context.MODE_PRIVATE);
+            snapshot = Collections.unmodifiableMap(new HashMap<>(sharedPreferences.getAll()));
+        }
+    }
 
     /**
-     * Constructor taking a {@link Context} instance as arguments: because we need to know all values in the current context to not violate values we don't want to change
-     * @param context
+     * Start a batch of changes, written to disk together by {@link Editor#apply()}
+     * (i.e. preferenceManager.edit().putBoolean(...).putString(...).apply())
+     * @return an empty batch of changes
      */
-    public PreferenceManager(Context context) {
-        sharedPreferences = context.getSharedPreferences(Constants.KEY_PREFERENCE_NAME, Context.MODE_PRIVATE);
+    public Editor edit() {
+        return new Editor();
     }
 
     /**
-     * Put Boolean type of setting (settings that are monitored by Boolean) into the editor for later export to XML
+     * Put a single Boolean setting, see {@link #edit()} to put several at once
      * @param key Setting name, also used for lookup
      * @param value of type Boolean which is the "core"/monitoring of this setting
      * (i.e. Setting name "Private" (keys) monitored through 2 options (values): ON or OFF
      */
     public void putBoolean(String key, Boolean value) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putBoolean(key,value);
-        editor.apply();
+        edit().putBoolean(key, value).apply();
     }
 
     /**
@@ -37,35 +63,139 @@ public class PreferenceManager {
      * @return the Boolean value of the matching key, false if key has no value (no matching key)
      */
     public Boolean getBoolean(String key) {
-        return sharedPreferences.getBoolean(key, false);
+        Object value = snapshot.get(key);
+        return value instanceof Boolean ? (Boolean) value : false;
     }
 
     /**
-     * Put String type of setting (settings that are monitored by String) into the editor for later export to XML
+     * Put a single String setting, see {@link #edit()} to put several at once
      * @param key Setting name
-     * @param value value to monitor the setting value
+     * @param value value to monitor the setting value, null removes the setting
      */
     public void putString(String key, String value) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(key, value);
-        editor.apply();
+        edit().putString(key, value).apply();
     }
 
     /**
      * Get the String value of the setting
      * @param key indicating the lookup key (for search)
-     * @return the string value in the setting
+     * @return the string value in the setting, null if key has no value
      */
     public String getString(String key) {
-        return sharedPreferences.getString(key, null);
+        Object value = snapshot.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Put a single long setting (i.e. a time in milliseconds), see {@link #edit()} to put several at once
+     * @param key Setting name
+     * @param value value of the setting
+     */
+    public void putLong(String key, long value) {
+        edit().putLong(key, value).apply();
+    }
+
+    /**
+     * Get the long value of the setting
+     * @param key indicating the lookup key (for search)
+     * @return the long value in the setting, 0 if key has no value
+     */
+    public long getLong(String key) {
+        Object value = snapshot.get(key);
+        return value instanceof Long ? (Long) value : 0;
     }
 
     /**
-     * Clear all values written in preference editor of type {@link android.content.SharedPreferences.Editor}, only key remains
+     * Clear all values (i.e. on sign out)
      */
     public void clear() {
+        edit().clear().apply();
+    }
+
+    /**
+     * Swap in the snapshot with the changes applied, then queue the matching disk write
+     */
+    private static void apply(boolean clear, Map<String, Object> changes) {
+        synchronized (LOCK) {
+            Map<String, Object> settings = clear ? new HashMap<>() : new HashMap<>(snapshot);
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    settings.remove(change.getKey());
+                } else {
+                    settings.put(change.getKey(), change.getValue());
+                }
+            }
+            snapshot = Collections.unmodifiableMap(settings);
+            // queued under the lock, so the writes reach the disk in the same order as the snapshots
+            DISK_EXECUTOR.execute(() -> write(clear, changes));
+        }
+    }
+
+    private static void write(boolean clear, Map<String, Object> changes) {
         SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.clear();
-        editor.apply();
+        if (clear) editor.clear();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object value = change.getValue();
+            if (value == null) {
+                editor.remove(change.getKey());
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(change.getKey(), (Boolean) value);
+            } else if (value instanceof Long) {
+                editor.putLong(change.getKey(), (Long) value);
+            } else {
+                editor.putString(change.getKey(), (String) value);
+            }
+        }
+        // already on a background thread, commit writes the file once instead of queueing another write like apply
+        editor.commit();
+    }
+
+    /**
+     * A batch of changes to the settings, nothing changes until {@link #apply()}
+     */
+    public static class Editor {
+
+        // a null value removes the setting
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        private Editor() {
+        }
+
+        public Editor putBoolean(String key, Boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        /**
+         * Remove every setting before the changes of this batch are applied, including the changes made before
+         * this call (like {@link SharedPreferences.Editor#clear()})
+         */
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        /**
+         * Apply the changes to the in-memory settings right away, they are written to disk in one write in the background
+         */
+        public void apply() {
+            PreferenceManager.apply(clear, new HashMap<>(changes));
+        }
     }
 }
@@ -0,0 +1,38 @@
+package com.example.babblechatapp.utilities;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time, in submission order, on top of a shared executor.
+ * Unlike a single thread executor it holds no thread of its own, so it never has to be shut down
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private Runnable active;
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(@NonNull Runnable command) {
+        tasks.offer(() -> {
+            try {
+                command.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+        if (active == null) scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        active = tasks.poll();
+        if (active != null) executor.execute(active);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.babblechatapp.utilities;
+
+import com.example.babblechatapp.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chat messages kept in chronological order (oldest first) and indexed by document id.
+ * Every change is applied with a binary search instead of re-sorting the whole list
+ */
+public class SortedMessageList {
+
+    // messages without a date (not yet stamped) are treated as the newest ones, ties are broken by id
+    private static final Comparator<ChatMessage> CHRONOLOGICAL_ORDER = (obj1, obj2) -> {
+        if (obj1.dateObject == null || obj2.dateObject == null) {
+            if (obj1.dateObject != obj2.dateObject) return obj1.dateObject == null ? 1 : -1;
+        } else {
+            int compareDate = obj1.dateObject.compareTo(obj2.dateObject);
+            if (compareDate != 0) return compareDate;
+        }
+        if (obj1.id == null || obj2.id == null) {
+            return obj1.id == null ? (obj2.id == null ? 0 : -1) : 1;
+        }
+        return obj1.id.compareTo(obj2.id);
+    };
+
+    private final List<ChatMessage> messages = new ArrayList<>();
+    private final List<ChatMessage> readOnlyMessages = Collections.unmodifiableList(messages);
+    private final Map<String, ChatMessage> messagesById = new HashMap<>();
+
+    /**
+     * @return read-only live view of the messages, suitable as the backing list of an adapter
+     */
+    public List<ChatMessage> getMessages() {
+        return readOnlyMessages;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public ChatMessage get(int position) {
+        return messages.get(position);
+    }
+
+    /**
+     * Insert a new message, or replace the message with the same id (modified documents)
+     * @param chatMessage message to put into the list
+     * @return the position the message ends up at
+     */
+    public int put(ChatMessage chatMessage) {
+        ChatMessage existing = chatMessage.id == null ? null : messagesById.get(chatMessage.id);
+        if (existing == null) return insert(chatMessage);
+        int fromPosition = indexOf(existing);
+        if (CHRONOLOGICAL_ORDER.compare(existing, chatMessage) == 0) {
+            messages.set(fromPosition, chatMessage);
+            messagesById.put(chatMessage.id, chatMessage);
+            return fromPosition;
+        }
+        // the timestamp changed, so the message has to move to its new place
+        messages.remove(fromPosition);
+        int toPosition = insertionPoint(chatMessage);
+        messages.add(toPosition, chatMessage);
+        messagesById.put(chatMessage.id, chatMessage);
+        return toPosition;
+    }
+
+    /**
+     * Remove the message with the given document id
+     * @param id document id of the message
+     * @return the position the message was removed from, -1 if it wasn't in the list
+     */
+    public int remove(String id) {
+        ChatMessage existing = messagesById.remove(id);
+        if (existing == null) return -1;
+        int position = indexOf(existing);
+        messages.remove(position);
+        return position;
+    }
+
+    /**
+     * Remove every message
+     */
+    public void clear() {
+        messages.clear();
+        messagesById.clear();
+    }
+
+    private int insert(ChatMessage chatMessage) {
+        int position = insertionPoint(chatMessage);
+        messages.add(position, chatMessage);
+        if (chatMessage.id != null) messagesById.put(chatMessage.id, chatMessage);
+        return position;
+    }
+
+    private int insertionPoint(ChatMessage chatMessage) {
+        int size = messages.size();
+        // new messages almost always arrive at the end of the conversation
+        if (size == 0 || CHRONOLOGICAL_ORDER.compare(messages.get(size - 1), chatMessage) <= 0) return size;
+        int position = Collections.binarySearch(messages, chatMessage, CHRONOLOGICAL_ORDER);
+        return position < 0 ? -(position + 1) : position;
+    }
+
+    private int indexOf(ChatMessage chatMessage) {
+        return Collections.binarySearch(messages, chatMessage, CHRONOLOGICAL_ORDER);
+    }
+}
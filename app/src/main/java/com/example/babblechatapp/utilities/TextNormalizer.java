@@ -0,0 +1,31 @@
+package com.example.babblechatapp.utilities;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public class TextNormalizer {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Fold a text for search, so queries match whatever case and accents were typed
+     * (i.e. "  Đặng  Thị Ánh" -> "dang thi anh")
+     * @param text text to fold, null is treated as empty
+     * @return the text in lowercase, without accents (đ becomes d, it has no decomposition), single spaced and trimmed
+     */
+    @NonNull
+    public static String normalize(@Nullable String text) {
+        if (text == null) return "";
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        String folded = COMBINING_MARKS.matcher(decomposed).replaceAll("").replace('đ', 'd');
+        return WHITESPACE.matcher(folded).replaceAll(" ").trim();
+    }
+}
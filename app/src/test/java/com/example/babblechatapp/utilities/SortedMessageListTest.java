@@ -0,0 +1,118 @@
+package com.example.babblechatapp.utilities;
+
+import com.example.babblechatapp.models.ChatMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link SortedMessageList}, its insert cost is measured by the microbenchmark module
+ */
+public class SortedMessageListTest {
+
+    @Test
+    public void put_keepsMessagesInChronologicalOrder() {
+        SortedMessageList list = new SortedMessageList();
+        list.put(message("b", 2000));
+        list.put(message("c", 3000));
+        list.put(message("a", 1000));
+        assertEquals("a", list.get(0).id);
+        assertEquals("b", list.get(1).id);
+        assertEquals("c", list.get(2).id);
+    }
+
+    @Test
+    public void put_returnsInsertPosition() {
+        SortedMessageList list = new SortedMessageList();
+        assertEquals(0, list.put(message("a", 1000)));
+        assertEquals(1, list.put(message("c", 3000)));
+        assertEquals(1, list.put(message("b", 2000)));
+    }
+
+    @Test
+    public void put_withKnownIdReplacesMessageInPlace() {
+        SortedMessageList list = new SortedMessageList();
+        list.put(message("a", 1000));
+        list.put(message("b", 2000));
+        ChatMessage edited = message("a", 1000);
+        edited.message = "edited";
+        assertEquals(0, list.put(edited));
+        assertEquals(2, list.size());
+        assertEquals("edited", list.get(0).message);
+    }
+
+    @Test
+    public void put_withChangedTimestampMovesMessage() {
+        SortedMessageList list = new SortedMessageList();
+        list.put(message("a", 1000));
+        list.put(message("b", 2000));
+        list.put(message("c", 3000));
+        assertEquals(2, list.put(message("a", 4000)));
+        assertEquals(3, list.size());
+        assertEquals("b", list.get(0).id);
+        assertEquals("a", list.get(2).id);
+    }
+
+    @Test
+    public void remove_returnsPositionAndIgnoresUnknownIds() {
+        SortedMessageList list = new SortedMessageList();
+        list.put(message("a", 1000));
+        list.put(message("b", 2000));
+        assertEquals(1, list.remove("b"));
+        assertEquals(-1, list.remove("b"));
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void clear_removesEveryMessageAndForgetsIds() {
+        SortedMessageList list = new SortedMessageList();
+        list.put(message("a", 1000));
+        list.put(message("b", 2000));
+        list.clear();
+        assertEquals(0, list.size());
+        assertEquals(-1, list.remove("a"));
+    }
+
+    @Test
+    public void put_manyMessagesInAnyOrderEndUpSorted() {
+        int count = 10_000;
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(message("m" + i, i * 1000L));
+        }
+
+        SortedMessageList inOrder = new SortedMessageList();
+        for (ChatMessage chatMessage : messages) {
+            inOrder.put(chatMessage);
+        }
+
+        List<ChatMessage> shuffled = new ArrayList<>(messages);
+        Collections.shuffle(shuffled, new Random(42));
+        SortedMessageList outOfOrder = new SortedMessageList();
+        for (ChatMessage chatMessage : shuffled) {
+            outOfOrder.put(chatMessage);
+        }
+
+        assertEquals(count, inOrder.size());
+        assertEquals(count, outOfOrder.size());
+        for (int i = 0; i < count; i++) {
+            assertSame(messages.get(i), inOrder.get(i));
+            assertSame(messages.get(i), outOfOrder.get(i));
+        }
+    }
+
+    private static ChatMessage message(String id, long time) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = id;
+        chatMessage.message = id;
+        chatMessage.dateObject = new Date(time);
+        return chatMessage;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.babblechatapp.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link TextNormalizer}
+ */
+public class TextNormalizerTest {
+
+    @Test
+    public void normalize_lowercasesAndStripsDiacritics() {
+        assertEquals("dang thi anh", TextNormalizer.normalize("Đặng Thị Ánh"));
+        assertEquals("cafe creme", TextNormalizer.normalize("Café Crème"));
+    }
+
+    @Test
+    public void normalize_foldsDStrokeToD() {
+        assertEquals("do duc", TextNormalizer.normalize("đỗ Đức"));
+    }
+
+    @Test
+    public void normalize_collapsesAndTrimsWhitespace() {
+        assertEquals("nguyen van an", TextNormalizer.normalize("  Nguyen \t Van\n\nAn  "));
+    }
+
+    @Test
+    public void normalize_keepsEmailsSearchable() {
+        assertEquals("an.nguyen@example.com", TextNormalizer.normalize("An.Nguyen@Example.com"));
+    }
+
+    @Test
+    public void normalize_treatsNullAsEmpty() {
+        assertEquals("", TextNormalizer.normalize(null));
+        assertEquals("", TextNormalizer.normalize("   "));
+    }
+}
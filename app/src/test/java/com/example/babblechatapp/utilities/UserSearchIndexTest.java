@@ -0,0 +1,83 @@
+package com.example.babblechatapp.utilities;
+
+import com.example.babblechatapp.models.User;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of {@link UserSearchIndex}
+ */
+public class UserSearchIndexTest {
+
+    private final UserSearchIndex index = new UserSearchIndex(Arrays.asList(
+            user("u1", "Nguyen An", "a@example.com"),
+            user("u2", "Anh Tran", "tran@example.com"),
+            user("u3", "Bao", "annie@example.com"),
+            user("u4", "Đặng Thị Ánh", null)
+    ));
+
+    @Test
+    public void search_matchesPrefixOfNameWordsAndEmail() {
+        // "an" is a later word of u1's name, the start of u2's name, of u3's email and of u4's last word,
+        // results come in key order: "an", "anh", "anh tran", "annie@example.com"
+        assertEquals(Arrays.asList("u1", "u4", "u2", "u3"), index.search("an", null, 10));
+        assertEquals(Collections.singletonList("u3"), index.search("annie@", null, 10));
+        assertEquals(Collections.singletonList("u1"), index.search("nguyen a", null, 10));
+    }
+
+    @Test
+    public void search_matchesNamesWithoutTheirDiacritics() {
+        assertEquals(Collections.singletonList("u4"), index.search("dang", null, 10));
+        assertEquals(Collections.singletonList("u4"), index.search("thi anh", null, 10));
+    }
+
+    @Test
+    public void search_returnsEachUserOnce() {
+        // u2 matches both by the last word of its name and by its email
+        assertEquals(Collections.singletonList("u2"), index.search("tran", null, 10));
+    }
+
+    @Test
+    public void search_startsAtTheFirstKeyNotSmallerThanThePrefix() {
+        // "a@example.com" sorts right before the keys starting with "an" and must not be matched
+        assertEquals(Collections.singletonList("u1"), index.search("a@", null, 10));
+        assertEquals(Arrays.asList("u1", "u4", "u2", "u3"), index.search("a", null, 10));
+        assertEquals(Collections.singletonList("u3"), index.search("bao", null, 10));
+    }
+
+    @Test
+    public void search_withPrefixOutsideTheKeysFindsNothing() {
+        assertTrue(index.search("0", null, 10).isEmpty());
+        assertTrue(index.search("zz", null, 10).isEmpty());
+        assertTrue(index.search("anx", null, 10).isEmpty());
+    }
+
+    @Test
+    public void search_withEmptyPrefixFindsNothing() {
+        assertTrue(index.search("", null, 10).isEmpty());
+    }
+
+    @Test
+    public void search_leavesOutExcludedUserAndStopsAtLimit() {
+        assertEquals(Arrays.asList("u4", "u2", "u3"), index.search("an", "u1", 10));
+        assertEquals(Arrays.asList("u1", "u4"), index.search("an", null, 2));
+    }
+
+    @Test
+    public void search_onEmptyIndexFindsNothing() {
+        assertTrue(new UserSearchIndex(Collections.emptyList()).search("an", null, 10).isEmpty());
+    }
+
+    private static User user(String id, String name, String email) {
+        User user = new User();
+        user.id = id;
+        user.name = name;
+        user.email = email;
+        return user;
+    }
+}
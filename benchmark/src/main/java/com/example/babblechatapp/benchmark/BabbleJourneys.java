@@ -0,0 +1,125 @@
+package com.example.babblechatapp.benchmark;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.BySelector;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import java.io.IOException;
+
+/**
+ * User journeys shared by the benchmarks and the Baseline Profile generator, driven through UiAutomator
+ */
+public class BabbleJourneys {
+
+    public static final String PACKAGE_NAME = "com.example.babblechatapp";
+    private static final long TIMEOUT_MS = 10000;
+    // the first sign in also fills the user's caches
+    private static final long SIGN_IN_TIMEOUT_MS = 60000;
+
+    private BabbleJourneys() {
+    }
+
+    /**
+     * Sign in as the seeded benchmark user unless the app already is, outside of any measurement
+     * (i.e. in a @Before, as cold start iterations kill the app between the setup and the measure blocks)
+     */
+    public static void signIn() throws IOException {
+        UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        device.executeShellCommand("am start -W -n " + PACKAGE_NAME + "/.activities.LauncherActivity");
+        BySelector signInButton = By.res(PACKAGE_NAME, "buttonSignIn");
+        BySelector conversations = By.res(PACKAGE_NAME, "conversationsRecyclerView");
+        device.wait(Until.hasObject(By.pkg(PACKAGE_NAME).depth(0)), TIMEOUT_MS);
+        if (device.wait(Until.hasObject(signInButton), TIMEOUT_MS)) {
+            device.findObject(By.res(PACKAGE_NAME, "inputEmail")).setText(EmulatorSeeder.EMAIL);
+            device.findObject(By.res(PACKAGE_NAME, "inputPassword")).setText(EmulatorSeeder.PASSWORD);
+            device.findObject(signInButton).click();
+        }
+        device.wait(Until.hasObject(conversations), SIGN_IN_TIMEOUT_MS);
+        device.pressHome();
+    }
+
+    /**
+     * Wait for the recent conversations of the main screen
+     * @return the conversations list, null if the app is signed out or has no conversation
+     */
+    public static UiObject2 waitForConversations(MacrobenchmarkScope scope) {
+        return waitForObject(scope, By.res(PACKAGE_NAME, "conversationsRecyclerView"));
+    }
+
+    /**
+     * Open the most recent conversation from the main screen and wait for its messages
+     * @return the messages list, null if there is no conversation to open
+     */
+    public static UiObject2 openFirstConversation(MacrobenchmarkScope scope) {
+        UiObject2 conversations = waitForConversations(scope);
+        if (conversations == null || conversations.getChildCount() == 0) return null;
+        conversations.getChildren().get(0).click();
+        return waitForMessages(scope);
+    }
+
+    /**
+     * Open the conversation with a peer from the main screen and wait for its messages
+     * @param peerName name of the peer, as shown in the conversations list
+     * @return the messages list, null if there is no such conversation
+     */
+    public static UiObject2 openConversation(MacrobenchmarkScope scope, String peerName) {
+        UiObject2 peer = waitForObject(scope, By.text(peerName));
+        if (peer == null) return null;
+        peer.click();
+        return waitForMessages(scope);
+    }
+
+    /**
+     * Open the user directory from the main screen and wait for its first page
+     * @return the users list, null if it didn't show up
+     */
+    public static UiObject2 openUsers(MacrobenchmarkScope scope) {
+        UiObject2 newChat = waitForObject(scope, By.res(PACKAGE_NAME, "fabNewChat"));
+        if (newChat == null) return null;
+        newChat.click();
+        return waitForObject(scope, By.res(PACKAGE_NAME, "usersRecyclerView"));
+    }
+
+    /**
+     * Fling a list a number of times in one direction
+     * @param list the list to scroll
+     * @param direction direction of the flings (UP moves towards the start of the list)
+     * @param flings number of flings
+     */
+    public static void fling(MacrobenchmarkScope scope, UiObject2 list, Direction direction, int flings) {
+        // keep the flings off the system gesture areas at the edges
+        list.setGestureMargin(scope.getDevice().getDisplayWidth() / 5);
+        for (int i = 0; i < flings; i++) {
+            list.fling(direction);
+            scope.getDevice().waitForIdle();
+        }
+    }
+
+    /**
+     * Scroll a list towards its start and back down, in flings
+     * @param list the list to scroll
+     * @param flings number of flings in each direction
+     */
+    public static void scrollUpAndDown(MacrobenchmarkScope scope, UiObject2 list, int flings) {
+        fling(scope, list, Direction.UP, flings);
+        fling(scope, list, Direction.DOWN, flings);
+    }
+
+    private static UiObject2 waitForMessages(MacrobenchmarkScope scope) {
+        UiObject2 messages = waitForObject(scope, By.res(PACKAGE_NAME, "chatRecyclerView"));
+        // the list is shown once the first page is bound
+        if (messages != null) messages.wait(Until.hasObject(By.res(PACKAGE_NAME, "textMessage")), TIMEOUT_MS);
+        return messages;
+    }
+
+    private static UiObject2 waitForObject(MacrobenchmarkScope scope, BySelector selector) {
+        UiDevice device = scope.getDevice();
+        device.wait(Until.hasObject(selector), TIMEOUT_MS);
+        return device.findObject(selector);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.babblechatapp.benchmark;
+
+import androidx.annotation.OptIn;
+import androidx.benchmark.macro.ExperimentalBaselineProfilesApi;
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.UiObject2;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Collects the Baseline Profile of the startup and chat-open flows.
+ * Needs a rooted device or an emulator image without Google Play, and runs on the seeded emulator datasets like the benchmarks.
+ * Run ./gradlew :benchmark:connectedBenchmarkAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.example.babblechatapp.benchmark.BaselineProfileGenerator
+ * and copy the resulting baseline-prof.txt over app/src/main/baseline-prof.txt
+ */
+@OptIn(markerClass = ExperimentalBaselineProfilesApi.class)
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    @Rule
+    public BaselineProfileRule baselineProfileRule = new BaselineProfileRule();
+
+    @Before
+    public void seedAndSignIn() throws Exception {
+        new EmulatorSeeder().seedIfNeeded();
+        BabbleJourneys.signIn();
+    }
+
+    @Test
+    public void startupAndOpenChat() {
+        baselineProfileRule.collectBaselineProfile(
+                BabbleJourneys.PACKAGE_NAME,
+                Collections.emptyList(),
+                scope -> {
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    UiObject2 messages = BabbleJourneys.openFirstConversation(scope);
+                    if (messages != null) {
+                        BabbleJourneys.scrollUpAndDown(scope, messages, 2);
+                        scope.getDevice().pressBack();
+                    }
+                    return Unit.INSTANCE;
+                }
+        );
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.babblechatapp.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiObject2;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * Frame timing of opening a conversation and scrolling back through its history, for every seeded dataset size.
+ * The first iteration of a dataset also fills the on-device message store, later ones read from it
+ */
+@RunWith(Parameterized.class)
+public class ChatBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int FLINGS = 10;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    private final int messageCount;
+
+    public ChatBenchmark(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    @Parameterized.Parameters(name = "messages={0}")
+    public static Collection<Object[]> getMessageCounts() {
+        List<Object[]> messageCounts = new ArrayList<>();
+        for (int messageCount : EmulatorSeeder.MESSAGE_COUNTS) {
+            messageCounts.add(new Object[]{messageCount});
+        }
+        return messageCounts;
+    }
+
+    @Before
+    public void seedAndSignIn() throws Exception {
+        new EmulatorSeeder().seedIfNeeded();
+        BabbleJourneys.signIn();
+    }
+
+    @Test
+    public void openChat() {
+        benchmarkRule.measureRepeated(
+                BabbleJourneys.PACKAGE_NAME,
+                Collections.singletonList(new FrameTimingMetric()),
+                CompilationMode.DEFAULT,
+                null, // the app is started by the setup block
+                ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    BabbleJourneys.waitForConversations(scope);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    if (BabbleJourneys.openConversation(scope, EmulatorSeeder.getPeerName(messageCount)) == null) {
+                        throw new IllegalStateException("The conversation didn't show up");
+                    }
+                    return Unit.INSTANCE;
+                }
+        );
+    }
+
+    @Test
+    public void scrollChat() {
+        UiObject2[] messages = new UiObject2[1];
+        benchmarkRule.measureRepeated(
+                BabbleJourneys.PACKAGE_NAME,
+                Collections.singletonList(new FrameTimingMetric()),
+                CompilationMode.DEFAULT,
+                null, // the app is started by the setup block
+                ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    messages[0] = BabbleJourneys.openConversation(scope, EmulatorSeeder.getPeerName(messageCount));
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    if (messages[0] == null) throw new IllegalStateException("The conversation didn't show up");
+                    // towards older messages, which are paged in on the way
+                    BabbleJourneys.fling(scope, messages[0], Direction.UP, FLINGS);
+                    return Unit.INSTANCE;
+                }
+        );
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.babblechatapp.benchmark;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Fills the local Firestore and Auth emulators with fixed datasets through their REST API, so every run measures the
+ * same data: a benchmark user (with its Firebase Auth account), {@link #USER_COUNT} other users for the directory, and one conversation per entry of
+ * {@link #MESSAGE_COUNTS} with that many messages.
+ * The app under test must be built with -PuseFirebaseEmulator=true (and -PfirebaseEmulatorHost when the device
+ * doesn't reach the host as 10.0.2.2, pass the same host as the firebaseEmulatorHost instrumentation argument)
+ */
+public class EmulatorSeeder {
+
+    public static final String EMAIL = "benchmark@babble.test";
+    public static final String PASSWORD = "benchmark";
+    public static final int[] MESSAGE_COUNTS = {100, 10000, 100000};
+    public static final int USER_COUNT = 1000;
+
+    private static final String PROJECT_ID = "chat-app-f0a82";
+    private static final int FIRESTORE_PORT = 8080;
+    private static final int AUTH_PORT = 9099;
+    // bump whenever the datasets change, so devices holding an older seed are reseeded
+    private static final int SEED_VERSION = 5;
+    // Firestore commits at most 500 writes at once
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final String USER_ID = "bench-me";
+    private static final long BASE_TIME_MS = 1600000000000L;
+
+    private final String firestoreUrl;
+    private final String authUrl;
+    private final String documentsPath = "projects/" + PROJECT_ID + "/databases/(default)/documents";
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    private JSONArray writes = new JSONArray();
+
+    public EmulatorSeeder() {
+        String host = InstrumentationRegistry.getArguments().getString("firebaseEmulatorHost", "10.0.2.2");
+        firestoreUrl = "http://" + host + ":" + FIRESTORE_PORT;
+        authUrl = "http://" + host + ":" + AUTH_PORT;
+        timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @param messageCount one of {@link #MESSAGE_COUNTS}
+     * @return name of the peer whose conversation holds that many messages, as shown in the conversations list
+     */
+    public static String getPeerName(int messageCount) {
+        return "Peer " + messageCount;
+    }
+
+    /**
+     * Seed the emulator unless it already holds the current datasets, this takes a few minutes the first time
+     */
+    public void seedIfNeeded() throws IOException, JSONException {
+        if (isSeeded()) return;
+        request("DELETE", firestoreUrl + "/emulator/v1/" + documentsPath, null);
+        request("DELETE", authUrl + "/emulator/v1/projects/" + PROJECT_ID + "/accounts", null);
+        put("users/" + USER_ID, getUserFields("Benchmark User", EMAIL)
+                .put("authUid", string(createAccount()))
+                .put("updatedAt", timestamp(BASE_TIME_MS)));
+        for (int i = 0; i < USER_COUNT; i++) {
+            String name = String.format(Locale.US, "User %04d", i);
+            put(String.format(Locale.US, "users/bench-user-%04d", i), getUserFields(name, String.format(Locale.US, "user%04d@babble.test", i))
+                    .put("updatedAt", timestamp(BASE_TIME_MS)));
+        }
+        for (int messageCount : MESSAGE_COUNTS) {
+            seedConversation(messageCount);
+        }
+        put("benchmark/seed", new JSONObject().put("version", integer(SEED_VERSION)));
+        commit();
+    }
+
+    /**
+     * Seeded names are plain ASCII, lowercasing them gives what TextNormalizer writes in the app
+     */
+    private static JSONObject getUserFields(String name, String email) throws JSONException {
+        return new JSONObject()
+                .put("name", string(name))
+                .put("email", string(email))
+                .put("nameLower", string(name.toLowerCase(Locale.ROOT)))
+                .put("emailLower", string(email.toLowerCase(Locale.ROOT)));
+    }
+
+    private void seedConversation(int messageCount) throws IOException, JSONException {
+        String peerId = "bench-peer-" + messageCount;
+        // same ordering as ConversationUtils.getConversationId in the app
+        String conversationId = USER_ID.compareTo(peerId) < 0 ? USER_ID + "_" + peerId : peerId + "_" + USER_ID;
+        put("users/" + peerId, getUserFields(getPeerName(messageCount), peerId + "@babble.test")
+                .put("updatedAt", timestamp(BASE_TIME_MS)));
+        String lastMessage = null;
+        int receivedCount = 0;
+        for (int i = 0; i < messageCount; i++) {
+            boolean isSent = i % 3 == 0;
+            if (!isSent) receivedCount++;
+            lastMessage = String.format(Locale.US, "Message %d of %d, a sentence long enough to wrap on a phone screen", i + 1, messageCount);
+            put(String.format(Locale.US, "chat/m%d-%06d", messageCount, i), new JSONObject()
+                    .put("senderId", string(isSent ? USER_ID : peerId))
+                    .put("receiverId", string(isSent ? peerId : USER_ID))
+                    .put("conversationId", string(conversationId))
+                    .put("participants", stringArray(isSent ? USER_ID : peerId, isSent ? peerId : USER_ID))
+                    .put("message", string(lastMessage))
+                    .put("timestamp", timestamp(BASE_TIME_MS + i * 1000L)));
+        }
+        put("users/" + USER_ID + "/conversations/" + peerId, new JSONObject()
+                .put("conversationId", string(conversationId))
+                .put("name", string(getPeerName(messageCount)))
+                .put("lastMessage", string(lastMessage))
+                .put("lastSenderId", string(peerId))
+                // everything read
+                .put("receivedCount", integer(receivedCount))
+                .put("readCount", integer(receivedCount))
+                // the biggest conversation is the most recent one
+                .put("timestamp", timestamp(BASE_TIME_MS + messageCount * 1000L)));
+    }
+
+    /**
+     * @return uid of the new Firebase Auth account of the benchmark user
+     */
+    private String createAccount() throws IOException, JSONException {
+        // the emulator accepts any API key
+        String response = request("POST", authUrl + "/identitytoolkit.googleapis.com/v1/accounts:signUp?key=benchmark",
+                new JSONObject().put("email", EMAIL).put("password", PASSWORD).toString());
+        if (response == null) throw new IOException("Auth emulator rejected the benchmark account");
+        return new JSONObject(response).getString("localId");
+    }
+
+    private boolean isSeeded() throws IOException, JSONException {
+        String response = request("GET", firestoreUrl + "/v1/" + documentsPath + "/benchmark/seed", null);
+        if (response == null) return false;
+        JSONObject version = new JSONObject(response).getJSONObject("fields").optJSONObject("version");
+        return version != null && version.optInt("integerValue") == SEED_VERSION;
+    }
+
+    private void put(String path, JSONObject fields) throws IOException, JSONException {
+        writes.put(new JSONObject().put("update", new JSONObject()
+                .put("name", documentsPath + "/" + path)
+                .put("fields", fields)));
+        if (writes.length() == MAX_BATCH_SIZE) commit();
+    }
+
+    private void commit() throws IOException, JSONException {
+        if (writes.length() == 0) return;
+        String response = request("POST", firestoreUrl + "/v1/" + documentsPath + ":commit",
+                new JSONObject().put("writes", writes).toString());
+        if (response == null) throw new IOException("Firestore emulator rejected the seed commit");
+        writes = new JSONArray();
+    }
+
+    /**
+     * @return the response body, null when the emulator answers with an error (i.e. 404 for a missing document)
+     */
+    private String request(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            // the emulators let the owner bypass the security rules
+            connection.setRequestProperty("Authorization", "Bearer owner");
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream outputStream = connection.getOutputStream()) {
+                    outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (connection.getResponseCode() >= 400) return null;
+            try (InputStream inputStream = connection.getInputStream()) {
+                return readFully(inputStream);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static JSONObject string(String value) throws JSONException {
+        return new JSONObject().put("stringValue", value);
+    }
+
+    private static JSONObject stringArray(String... values) throws JSONException {
+        JSONArray arrayValues = new JSONArray();
+        for (String value : values) {
+            arrayValues.put(string(value));
+        }
+        return new JSONObject().put("arrayValue", new JSONObject().put("values", arrayValues));
+    }
+
+    private static JSONObject integer(long value) throws JSONException {
+        // int64 values are strings in the REST API
+        return new JSONObject().put("integerValue", String.valueOf(value));
+    }
+
+    private JSONObject timestamp(long timeMillis) throws JSONException {
+        return new JSONObject().put("timestampValue", timestampFormat.format(new Date(timeMillis)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.babblechatapp.benchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Cold start of the app from the launcher, reporting time to initial display (first frame of the routed screen) and
+ * time to full display (MainActivity reports it once the first conversations are shown).
+ * Runs signed in as the user of the seeded emulator datasets (see {@link EmulatorSeeder}), with
+ * ./gradlew -PuseFirebaseEmulator=true :benchmark:connectedBenchmarkAndroidTest.
+ * Comparing both tests shows what the Baseline Profile saves
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Before
+    public void seedAndSignIn() throws Exception {
+        new EmulatorSeeder().seedIfNeeded();
+        BabbleJourneys.signIn();
+    }
+
+    @Test
+    public void startupWithoutCompilation() {
+        startup(new CompilationMode.None());
+    }
+
+    @Test
+    public void startupWithBaselineProfile() {
+        startup(new CompilationMode.Partial(BaselineProfileMode.Require));
+    }
+
+    private void startup(CompilationMode compilationMode) {
+        benchmarkRule.measureRepeated(
+                BabbleJourneys.PACKAGE_NAME,
+                Collections.singletonList(new StartupTimingMetric()),
+                compilationMode,
+                StartupMode.COLD,
+                ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    BabbleJourneys.waitForConversations(scope);
+                    return Unit.INSTANCE;
+                }
+        );
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.babblechatapp.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiObject2;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Frame timing (jank) of scrolling the user directory through the seeded users, pages being loaded on the way
+ */
+@RunWith(AndroidJUnit4.class)
+public class UsersScrollBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int FLINGS = 10;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Before
+    public void seedAndSignIn() throws Exception {
+        new EmulatorSeeder().seedIfNeeded();
+        BabbleJourneys.signIn();
+    }
+
+    @Test
+    public void scrollUsers() {
+        UiObject2[] users = new UiObject2[1];
+        benchmarkRule.measureRepeated(
+                BabbleJourneys.PACKAGE_NAME,
+                Collections.singletonList(new FrameTimingMetric()),
+                CompilationMode.DEFAULT,
+                null, // the app is started by the setup block
+                ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    users[0] = BabbleJourneys.openUsers(scope);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    if (users[0] == null) throw new IllegalStateException("The user directory didn't show up");
+                    BabbleJourneys.fling(scope, users[0], Direction.DOWN, FLINGS);
+                    return Unit.INSTANCE;
+                }
+        );
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.babblechatapp.microbenchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.util.Base64;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.babblechatapp.firebase.AvatarStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Cost of decoding avatars as AvatarCache does: the Base64 inline thumbnail, and the display size image from the store
+ */
+@RunWith(AndroidJUnit4.class)
+public class AvatarDecodeBenchmark {
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private String encodedThumbnail;
+    private byte[] displayImage;
+
+    @Before
+    public void setUp() {
+        // a gradient compresses like a photo rather than like a flat color
+        Bitmap source = Bitmap.createBitmap(1024, 1024, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, 1024, 1024, Color.BLUE, Color.YELLOW, Shader.TileMode.MIRROR));
+        new Canvas(source).drawRect(0, 0, 1024, 1024, paint);
+        encodedThumbnail = Base64.encodeToString(AvatarStore.compress(source, AvatarStore.THUMBNAIL_WIDTH), Base64.DEFAULT);
+        displayImage = AvatarStore.compress(source, AvatarStore.DISPLAY_WIDTH);
+    }
+
+    @Test
+    public void decodeInlineThumbnail() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            byte[] bytes = Base64.decode(encodedThumbnail, Base64.DEFAULT);
+            BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        }
+    }
+
+    @Test
+    public void decodeDisplayImage() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            BitmapFactory.decodeByteArray(displayImage, 0, displayImage.length);
+        }
+    }
+}
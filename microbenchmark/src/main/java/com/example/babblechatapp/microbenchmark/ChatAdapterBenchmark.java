@@ -0,0 +1,89 @@
+package com.example.babblechatapp.microbenchmark;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.annotation.UiThreadTest;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.babblechatapp.R;
+import com.example.babblechatapp.adapters.ChatAdapter;
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.models.User;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Cost of creating and binding chat rows, the work RecyclerView does for every message scrolled into view
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatAdapterBenchmark {
+
+    private static final String SENDER_ID = "sender";
+    private static final int MESSAGE_COUNT = 1000;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private RecyclerView recyclerView;
+    private ChatAdapter chatAdapter;
+
+    @Before
+    public void setUp() {
+        Context context = new ContextThemeWrapper(ApplicationProvider.getApplicationContext(), R.style.Theme_MyApplication);
+        recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        User receiverUser = new User();
+        receiverUser.id = "receiver";
+        receiverUser.name = "Receiver";
+        chatAdapter = new ChatAdapter(receiverUser, SENDER_ID);
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.id = "m" + i;
+            chatMessage.senderId = i % 3 == 0 ? SENDER_ID : receiverUser.id;
+            chatMessage.receiverId = i % 3 == 0 ? receiverUser.id : SENDER_ID;
+            chatMessage.message = "Message " + i + ", a sentence long enough to wrap on a phone screen";
+            chatMessage.dateObject = new Date(1600000000000L + i * 1000L);
+            messages.add(chatMessage);
+        }
+        // the first list is applied synchronously, there is nothing to diff it against
+        chatAdapter.submitList(messages);
+    }
+
+    @Test
+    @UiThreadTest
+    public void createViewHolder() {
+        BenchmarkState state = benchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            chatAdapter.onCreateViewHolder(recyclerView, chatAdapter.getItemViewType(i++ % MESSAGE_COUNT));
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void bindViewHolder() {
+        RecyclerView.ViewHolder sentViewHolder = chatAdapter.onCreateViewHolder(recyclerView, ChatAdapter.VIEW_TYPE_SENT);
+        RecyclerView.ViewHolder receivedViewHolder = chatAdapter.onCreateViewHolder(recyclerView, ChatAdapter.VIEW_TYPE_RECEIVED);
+        BenchmarkState state = benchmarkRule.getState();
+        int position = 0;
+        while (state.keepRunning()) {
+            boolean isSent = chatAdapter.getItemViewType(position) == ChatAdapter.VIEW_TYPE_SENT;
+            chatAdapter.onBindViewHolder(isSent ? sentViewHolder : receivedViewHolder, position);
+            position = (position + 1) % MESSAGE_COUNT;
+        }
+    }
+}
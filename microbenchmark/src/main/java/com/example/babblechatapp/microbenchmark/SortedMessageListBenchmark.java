@@ -0,0 +1,126 @@
+package com.example.babblechatapp.microbenchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.example.babblechatapp.models.ChatMessage;
+import com.example.babblechatapp.utilities.SortedMessageList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cost of inserting a message into the sorted message list at the seeded dataset sizes.
+ * The put benchmarks insert one message and remove it again, so the list keeps its size,
+ * the fill benchmarks build a list of the whole history
+ */
+@RunWith(Parameterized.class)
+public class SortedMessageListBenchmark {
+
+    private static final long BASE_TIME_MS = 1600000000000L;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int size;
+    private SortedMessageList sortedMessageList;
+    // the history oldest first, and in the order of a history arriving out of order
+    private List<ChatMessage> messages, shuffledMessages;
+
+    public SortedMessageListBenchmark(int size) {
+        this.size = size;
+    }
+
+    @Parameterized.Parameters(name = "size={0}")
+    public static Collection<Object[]> getSizes() {
+        return Arrays.asList(new Object[][]{{100}, {10000}, {100000}});
+    }
+
+    @Before
+    public void setUp() {
+        messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(message("m" + i, BASE_TIME_MS + i * 1000L));
+        }
+        shuffledMessages = new ArrayList<>(messages);
+        Collections.shuffle(shuffledMessages, new Random(42));
+        sortedMessageList = new SortedMessageList();
+        for (ChatMessage chatMessage : messages) {
+            sortedMessageList.put(chatMessage);
+        }
+    }
+
+    /**
+     * A new message, the common case of a live conversation
+     */
+    @Test
+    public void putNewestMessage() {
+        ChatMessage newest = message("newest", BASE_TIME_MS + size * 1000L);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            sortedMessageList.put(newest);
+            sortedMessageList.remove(newest.id);
+        }
+    }
+
+    /**
+     * A message arriving out of order, in the middle of the history
+     */
+    @Test
+    public void putMessageInTheMiddle() {
+        ChatMessage middle = message("middle", BASE_TIME_MS + size * 500L + 500L);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            sortedMessageList.put(middle);
+            sortedMessageList.remove(middle.id);
+        }
+    }
+
+    /**
+     * The history read oldest first, as pages of the device store are merged
+     */
+    @Test
+    public void fillInOrder() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            SortedMessageList list = new SortedMessageList();
+            for (ChatMessage chatMessage : messages) {
+                list.put(chatMessage);
+            }
+        }
+    }
+
+    /**
+     * The history arriving in no particular order
+     */
+    @Test
+    public void fillOutOfOrder() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            SortedMessageList list = new SortedMessageList();
+            for (ChatMessage chatMessage : shuffledMessages) {
+                list.put(chatMessage);
+            }
+        }
+    }
+
+    private static ChatMessage message(String id, long timeMillis) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = id;
+        chatMessage.senderId = "sender";
+        chatMessage.message = id;
+        chatMessage.dateObject = new Date(timeMillis);
+        return chatMessage;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.babblechatapp.microbenchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.example.babblechatapp.models.User;
+import com.example.babblechatapp.utilities.UserSearchIndex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cost of a keystroke in the user search, and of building the index from the cached directory, up to 100k users
+ */
+@RunWith(Parameterized.class)
+public class UserSearchIndexBenchmark {
+
+    private static final String[] FAMILY_NAMES = {"Nguyễn", "Trần", "Lê", "Phạm", "Hoàng", "Đặng", "Bùi", "Đỗ"};
+    private static final String[] GIVEN_NAMES = {"An", "Anh", "Bảo", "Dũng", "Hà", "Linh", "Minh", "Thảo", "Trung", "Vy"};
+    private static final int SEARCH_LIMIT = 20;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int size;
+    private List<User> users;
+    private UserSearchIndex userSearchIndex;
+
+    public UserSearchIndexBenchmark(int size) {
+        this.size = size;
+    }
+
+    @Parameterized.Parameters(name = "size={0}")
+    public static Collection<Object[]> getSizes() {
+        return Arrays.asList(new Object[][]{{1000}, {10000}, {100000}});
+    }
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        users = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            User user = new User();
+            user.id = "user" + i;
+            user.name = FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)] + " "
+                    + GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)] + " "
+                    + GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+            user.email = "user" + i + "@example.com";
+            users.add(user);
+        }
+        userSearchIndex = new UserSearchIndex(users);
+    }
+
+    /**
+     * The first letter typed, matching a large share of the directory, the search stops at the limit
+     */
+    @Test
+    public void searchFirstLetter() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            userSearchIndex.search("a", null, SEARCH_LIMIT);
+        }
+    }
+
+    /**
+     * A full name typed, matching few users
+     */
+    @Test
+    public void searchFullName() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            userSearchIndex.search("dang linh th", null, SEARCH_LIMIT);
+        }
+    }
+
+    /**
+     * A query matching no user
+     */
+    @Test
+    public void searchNoMatch() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            userSearchIndex.search("zz", null, SEARCH_LIMIT);
+        }
+    }
+
+    /**
+     * The index is rebuilt on the first search after the cached directory changes
+     */
+    @Test
+    public void build() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            new UserSearchIndex(users);
+        }
+    }
+}